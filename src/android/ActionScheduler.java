@@ -0,0 +1,187 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.os.Process;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking plugin actions (provider queries, file copies) on bounded,
+ * named I/O pools so they never hold up the Cordova bridge thread.
+ *
+ * Actions that may copy or read whole files run on a separate bulk pool, so
+ * a few long imports can't starve short calls such as readChunk or
+ * getCordovaIntent.
+ *
+ * Every action has its own queue depth limit. When an action is over its limit
+ * the overflow policy decides what happens:
+ *  - "reject": the call fails right away with an ERROR result
+ *  - "queue":  the call is still queued, as long as the shared queue has room
+ * A full shared queue always ends in an ERROR result.
+ */
+public class ActionScheduler {
+
+    public static final String POLICY_REJECT = "reject";
+    public static final String POLICY_QUEUE = "queue";
+
+    private static final String TAG = "ActionScheduler";
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor bulkExecutor;
+    private final int maxPendingPerAction;
+    private final boolean queueOnOverflow;
+    private final ConcurrentHashMap<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallelism number of I/O worker threads
+     * @param bulkParallelism number of worker threads for bulk actions
+     * @param maxPendingPerAction running plus queued calls allowed per action
+     * @param queueCapacity size of the queue shared by all actions of a pool
+     * @param overflowPolicy {@link #POLICY_REJECT} or {@link #POLICY_QUEUE}
+     */
+    public ActionScheduler(int parallelism, int bulkParallelism, int maxPendingPerAction, int queueCapacity,
+                           String overflowPolicy) {
+        this.maxPendingPerAction = Math.max(1, maxPendingPerAction);
+        this.queueOnOverflow = POLICY_QUEUE.equalsIgnoreCase(overflowPolicy);
+        this.executor = pool(parallelism, queueCapacity, "IntentPlugin-io");
+        this.bulkExecutor = pool(bulkParallelism, queueCapacity, "IntentPlugin-bulk");
+    }
+
+    private static ThreadPoolExecutor pool(int parallelism, int queueCapacity, String name) {
+        final int threads = Math.max(1, parallelism);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(1, queueCapacity)),
+                new NamedThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Queue a blocking action. If it cannot be accepted, the callback gets an
+     * ERROR result and the task is dropped.
+     *
+     * @param action action name, used for the per-action depth limit
+     * @param task work to run on the I/O pool
+     * @param callbackContext callback to fail on rejection
+     * @return true if the task was accepted
+     */
+    public boolean submit(final String action, final Runnable task, final CallbackContext callbackContext) {
+        return submit(action, task, callbackContext, false);
+    }
+
+    /**
+     * Queue a blocking action on the I/O or the bulk pool
+     *
+     * @param bulk true for actions that may copy or read whole files
+     * @return true if the task was accepted
+     * @see #submit(String, Runnable, CallbackContext)
+     */
+    public boolean submit(final String action, final Runnable task, final CallbackContext callbackContext, boolean bulk) {
+        AtomicInteger counter = pending.get(action);
+        if (counter == null) {
+            AtomicInteger created = new AtomicInteger();
+            counter = pending.putIfAbsent(action, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        final AtomicInteger actionPending = counter;
+
+        if (actionPending.incrementAndGet() > maxPendingPerAction && !queueOnOverflow) {
+            actionPending.decrementAndGet();
+            reject(action, callbackContext);
+            return false;
+        }
+
+        try {
+            (bulk ? bulkExecutor : executor).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        actionPending.decrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            actionPending.decrementAndGet();
+            reject(action, callbackContext);
+            return false;
+        }
+    }
+
+    /**
+     * Queue internal work such as startup or a follow-up event. It doesn't
+     * count against any action's limit, only a full shared queue rejects it.
+     *
+     * @param name used in the log
+     * @param task work to run on the I/O pool
+     * @return true if the task was accepted
+     */
+    public boolean submitInternal(String name, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            PluginLog.w(TAG, "Rejected " + name + ": the I/O queue is full");
+            return false;
+        }
+    }
+
+    /**
+     * Number of running plus queued calls for an action.
+     */
+    public int getPending(String action) {
+        AtomicInteger counter = pending.get(action);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        bulkExecutor.shutdownNow();
+    }
+
+    private void reject(String action, CallbackContext callbackContext) {
+        PluginLog.w(TAG, "Rejected " + action + ": too many pending calls");
+        if (callbackContext != null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR,
+                    "Too many pending " + action + " calls, try again later"));
+        }
+    }
+
+    /**
+     * Names worker threads and drops them to background priority so copies
+     * don't compete with the UI.
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
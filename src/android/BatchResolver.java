@@ -0,0 +1,138 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves many content URIs in one bridge call.
+ *
+ * Each batch starts at most `concurrency` workers on a shared pool. Workers
+ * pull the next URI from the batch until it is empty, so one batch never holds
+ * more than its share of threads. Every URI result is sent as soon as it is
+ * ready on a kept-alive callback:
+ *
+ *   { "index": 3, "uri": "content://...", "path": "/data/..." }
+ *   { "index": 4, "uri": "content://...", "error": "..." }
+ *
+ * followed by a final summary that closes the callback:
+ *
+ *   { "done": true, "total": 200, "resolved": 198, "failed": 2 }
+ */
+public class BatchResolver {
+
+    private static final String TAG = "BatchResolver";
+
+    private final Context context;
+    private final ExecutorService pool;
+    private final int maxConcurrency;
+
+    /**
+     * @param context application context
+     * @param maxConcurrency upper bound on worker threads shared by all batches
+     */
+    public BatchResolver(Context context, int maxConcurrency) {
+        this.context = context;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(this.maxConcurrency, this.maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ActionScheduler.NamedThreadFactory("IntentPlugin-resolve"));
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+    }
+
+    /**
+     * Start resolving a batch, results are streamed to the callback
+     *
+     * @param uris content or file URIs
+     * @param concurrency workers for this batch, capped by the pool size
+     * @param callbackContext kept alive until the summary is sent
+     */
+    public void resolve(final List<String> uris, int concurrency, final CallbackContext callbackContext) {
+        final int total = uris.size();
+        if (total == 0) {
+            sendSummary(callbackContext, 0, 0, 0);
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final int workers = Math.min(total, Math.max(1, Math.min(concurrency, maxConcurrency)));
+
+        for (int w = 0; w < workers; w++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    FileUtils fileUtils = new FileUtils(context);
+                    int index;
+                    while ((index = next.getAndIncrement()) < total) {
+                        if (!resolveOne(fileUtils, index, uris.get(index), callbackContext)) {
+                            failed.incrementAndGet();
+                        }
+                        if (finished.incrementAndGet() == total) {
+                            int failures = failed.get();
+                            sendSummary(callbackContext, total, total - failures, failures);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private boolean resolveOne(FileUtils fileUtils, int index, String uri, CallbackContext callbackContext) {
+        JSONObject item = new JSONObject();
+        boolean resolved = false;
+        try {
+            item.put("index", index);
+            item.put("uri", uri);
+            try {
+                String path = ResolvedPathCache.getInstance(context).resolve(fileUtils, Uri.parse(uri));
+                if (path != null) {
+                    item.put("path", path);
+                    resolved = true;
+                } else {
+                    item.put("error", "Unable to resolve path");
+                }
+            } catch (Exception e) {
+                PluginLog.d(TAG, "Failed to resolve " + uri + ": " + e.getMessage());
+                item.put("error", String.valueOf(e.getMessage()));
+            }
+        } catch (JSONException e) {
+            PluginLog.d(TAG, e.getMessage());
+        }
+
+        PluginResult result = new PluginResult(PluginResult.Status.OK, item);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        return resolved;
+    }
+
+    private void sendSummary(CallbackContext callbackContext, int total, int resolved, int failed) {
+        JSONObject summary = new JSONObject();
+        try {
+            summary.put("done", true);
+            summary.put("total", total);
+            summary.put("resolved", resolved);
+            summary.put("failed", failed);
+        } catch (JSONException e) {
+            PluginLog.d(TAG, e.getMessage());
+        }
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, summary));
+    }
+}
@@ -0,0 +1,180 @@
+package com.betasoft.cordova.plugin.intent;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes CBOR (RFC 8949), sent over the bridge as an ArrayBuffer and read by
+ * decodeCbor in IntentPlugin.js.
+ *
+ * Objects and arrays are written with indefinite length, so nothing has to
+ * be counted or buffered up front and the writer follows the same call
+ * order as JsonWriter. Strings are UTF-8 text, integers use the shortest
+ * encoding and other numbers are 64-bit floats.
+ */
+public class CborWriter extends PayloadWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_TEXT = 3 << 5;
+    private static final int MAJOR_ARRAY = 4 << 5;
+    private static final int MAJOR_MAP = 5 << 5;
+
+    private static final int INDEFINITE = 31;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int FLOAT64 = 0xfb;
+    private static final int BREAK = 0xff;
+
+    private byte[] buffer;
+    private int length = 0;
+
+    public CborWriter() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity initial buffer size
+     */
+    public CborWriter(int capacity) {
+        buffer = new byte[Math.max(16, capacity)];
+    }
+
+    @Override
+    public PayloadWriter beginObject() {
+        write(MAJOR_MAP | INDEFINITE);
+        return this;
+    }
+
+    @Override
+    public PayloadWriter endObject() {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public PayloadWriter beginArray() {
+        write(MAJOR_ARRAY | INDEFINITE);
+        return this;
+    }
+
+    @Override
+    public PayloadWriter endArray() {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public PayloadWriter name(String name) {
+        return value(name);
+    }
+
+    @Override
+    public PayloadWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        head(MAJOR_TEXT, bytes.length);
+        write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    @Override
+    public PayloadWriter value(long value) {
+        if (value >= 0) {
+            head(MAJOR_UNSIGNED, value);
+        } else {
+            head(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public PayloadWriter value(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)
+                && Math.abs(value) < (double) (1L << 53)) {
+            return value((long) value);
+        }
+        long bits = Double.doubleToLongBits(value);
+        write(FLOAT64);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            write((int) (bits >>> shift));
+        }
+        return this;
+    }
+
+    @Override
+    public PayloadWriter value(boolean value) {
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public PayloadWriter nullValue() {
+        write(NULL);
+        return this;
+    }
+
+    /**
+     * Write already encoded CBOR items as they are, e.g. payloads joined
+     * into an array
+     */
+    public CborWriter raw(byte[] encoded) {
+        write(encoded, 0, encoded.length);
+        return this;
+    }
+
+    /**
+     * @return the bytes written so far
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Major type and argument, in the shortest form
+     */
+    private void head(int major, long argument) {
+        if (argument < 24) {
+            write(major | (int) argument);
+        } else if (argument < 0x100) {
+            write(major | 24);
+            write((int) argument);
+        } else if (argument < 0x10000) {
+            write(major | 25);
+            write((int) (argument >>> 8));
+            write((int) argument);
+        } else if (argument < 0x100000000L) {
+            write(major | 26);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write((int) (argument >>> shift));
+            }
+        } else {
+            write(major | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (argument >>> shift));
+            }
+        }
+    }
+
+    private void write(int b) {
+        ensure(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void write(byte[] bytes, int offset, int count) {
+        ensure(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ClipData;
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the clip items of received intents so JS can read them in pages
+ * instead of receiving every item in one payload.
+ *
+ * File metadata is only queried for the items of a requested page, and only
+ * if a metadata field was asked for. Results are kept per handle, so reading
+ * a page again costs no provider queries. All handles are freed with
+ * {@link #clear()} when the next intent arrives.
+ */
+public class ClipItemStore {
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    static final Set<String> ALL_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "htmlText", "intent", "text", "uri", "fileName", "fileSize", "lastModified"
+    )));
+
+    private static final Set<String> META_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "fileName", "fileSize", "lastModified"
+    )));
+
+    private static final String TAG = "ClipItemStore";
+
+    /**
+     * Queries { name, size, modifiedDate } of a URI
+     */
+    interface MetadataLoader {
+        JSONObject load(Uri uri);
+    }
+
+    private static final class ClipItems {
+        final ClipData clipData;
+        final ConcurrentHashMap<Integer, JSONObject> metas = new ConcurrentHashMap<>();
+
+        ClipItems(ClipData clipData) {
+            this.clipData = clipData;
+        }
+    }
+
+    private final MetadataLoader loader;
+    private final ExecutorService pool;
+    private final AtomicInteger nextHandle = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, ClipItems> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param loader metadata query for a single URI
+     * @param pool runs the metadata queries of a page in parallel
+     */
+    public ClipItemStore(MetadataLoader loader, ExecutorService pool) {
+        this.loader = loader;
+        this.pool = pool;
+    }
+
+    /**
+     * Register clip items, registering the same ClipData again returns its
+     * existing handle
+     *
+     * @return handle to pass to {@link #getPage(int, int, int, Set)}
+     */
+    public synchronized int register(ClipData clipData) {
+        for (Map.Entry<Integer, ClipItems> entry : entries.entrySet()) {
+            if (entry.getValue().clipData == clipData) {
+                return entry.getKey();
+            }
+        }
+        int handle = nextHandle.incrementAndGet();
+        entries.put(handle, new ClipItems(clipData));
+        return handle;
+    }
+
+    /**
+     * Free all handles
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Read a page of clip items
+     *
+     * @param handle from {@link #register(ClipData)}
+     * @param offset index of the first item
+     * @param limit number of items, at most {@link #MAX_PAGE_SIZE}
+     * @param fields item fields to include, null for all
+     * @return { handle, offset, total, items }
+     * @throws IllegalArgumentException if the handle is unknown or was freed
+     */
+    public JSONObject getPage(int handle, int offset, int limit, Set<String> fields) throws JSONException {
+        ClipItems entry = entries.get(handle);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown or expired clip items handle " + handle);
+        }
+        if (fields == null || fields.isEmpty()) {
+            fields = ALL_FIELDS;
+        }
+
+        int total = entry.clipData.getItemCount();
+        int from = Math.max(0, Math.min(offset, total));
+        int to = Math.min(total, from + Math.max(0, Math.min(limit, MAX_PAGE_SIZE)));
+
+        boolean wantsMeta = !Collections.disjoint(fields, META_FIELDS);
+        if (wantsMeta) {
+            loadMetadata(entry, from, to);
+        }
+
+        JSONArray items = new JSONArray();
+        for (int i = from; i < to; i++) {
+            ClipData.Item item = entry.clipData.getItemAt(i);
+            JSONObject json = new JSONObject();
+            json.put("index", i);
+            if (fields.contains("htmlText")) json.put("htmlText", item.getHtmlText());
+            if (fields.contains("intent")) json.put("intent", item.getIntent());
+            if (fields.contains("text")) json.put("text", item.getText());
+            if (fields.contains("uri")) json.put("uri", item.getUri());
+            if (wantsMeta) {
+                JSONObject meta = entry.metas.get(i);
+                if (meta == null) {
+                    meta = new JSONObject();
+                }
+                if (fields.contains("fileName")) json.put("fileName", meta.optString("name"));
+                if (fields.contains("fileSize")) json.put("fileSize", meta.optLong("size"));
+                if (fields.contains("lastModified")) json.put("lastModified", meta.optLong("modifiedDate"));
+            }
+            items.put(json);
+        }
+
+        JSONObject page = new JSONObject();
+        page.put("handle", handle);
+        page.put("offset", from);
+        page.put("total", total);
+        page.put("items", items);
+        return page;
+    }
+
+    /**
+     * Query metadata for the items of a page that don't have it yet
+     */
+    private void loadMetadata(final ClipItems entry, int from, int to) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            if (entry.metas.containsKey(i)) {
+                continue;
+            }
+            final int index = i;
+            final Uri uri = entry.clipData.getItemAt(i).getUri();
+            if (uri == null) {
+                entry.metas.put(index, new JSONObject());
+                continue;
+            }
+            futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    entry.metas.put(index, loader.load(uri));
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                PluginLog.d(TAG, "Error building file metadata: " + e.getMessage());
+            }
+        }
+    }
+}
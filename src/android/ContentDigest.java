@@ -0,0 +1,163 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Digests computed while bytes stream through a copy or a hash-only read.
+ *
+ * Supported algorithms are "sha256" and "crc32c". CRC32C needs API 26.
+ * Below that a plain CRC32 is computed instead and reported as "crc32".
+ *
+ * Not thread safe: one thread feeds it at a time, and {@link #finish()} is
+ * called once every byte was fed.
+ */
+public class ContentDigest {
+
+    public static final String SHA256 = "sha256";
+    public static final String CRC32C = "crc32c";
+    public static final String CRC32_FALLBACK = "crc32";
+
+    private static final int SCRATCH_SIZE = 64 * 1024;
+
+    private MessageDigest sha256;
+    private Checksum crc;
+    private String crcName;
+    private byte[] scratch;
+
+    private long bytes = 0;
+    private JSONObject result;
+
+    /**
+     * @param algorithms names from options, e.g. ["sha256", "crc32c"]
+     * @return null if no algorithm is requested
+     * @throws IllegalArgumentException for unknown algorithms
+     */
+    public static ContentDigest fromOptions(JSONArray algorithms) throws JSONException {
+        if (algorithms == null || algorithms.length() == 0) {
+            return null;
+        }
+        ContentDigest digest = new ContentDigest();
+        for (int i = 0; i < algorithms.length(); i++) {
+            digest.require(algorithms.getString(i));
+        }
+        return digest;
+    }
+
+    /**
+     * Add an algorithm, must be called before any bytes are fed
+     *
+     * @throws IllegalArgumentException for unknown algorithms
+     */
+    public void require(String algorithm) {
+        if (SHA256.equalsIgnoreCase(algorithm)) {
+            if (sha256 == null) {
+                try {
+                    sha256 = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("SHA-256 not available", e);
+                }
+            }
+        } else if (CRC32C.equalsIgnoreCase(algorithm) || CRC32_FALLBACK.equalsIgnoreCase(algorithm)) {
+            if (crc == null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && CRC32C.equalsIgnoreCase(algorithm)) {
+                    crc = new java.util.zip.CRC32C();
+                    crcName = CRC32C;
+                } else {
+                    crc = new CRC32();
+                    crcName = CRC32_FALLBACK;
+                }
+                scratch = new byte[SCRATCH_SIZE];
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown hash algorithm " + algorithm);
+        }
+    }
+
+    /**
+     * Feed the remaining bytes of a buffer, the buffer itself is not changed
+     */
+    public void update(ByteBuffer buffer) {
+        bytes += buffer.remaining();
+        if (sha256 != null) {
+            sha256.update(buffer.duplicate());
+        }
+        if (crc != null) {
+            ByteBuffer view = buffer.duplicate();
+            while (view.hasRemaining()) {
+                int n = Math.min(view.remaining(), scratch.length);
+                view.get(scratch, 0, n);
+                crc.update(scratch, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Forget all bytes fed so far, e.g. before a copy is retried
+     */
+    public void reset() {
+        if (sha256 != null) {
+            sha256.reset();
+        }
+        if (crc != null) {
+            crc.reset();
+        }
+        bytes = 0;
+        result = null;
+    }
+
+    /**
+     * Compute the final values, no more bytes can be fed afterwards
+     */
+    public void finish() {
+        if (result != null) {
+            return;
+        }
+        result = new JSONObject();
+        try {
+            if (sha256 != null) {
+                result.put(SHA256, CopyCache.toHex(sha256.digest()));
+            }
+            if (crc != null) {
+                result.put(crcName, String.format(Locale.US, "%08x", crc.getValue()));
+            }
+        } catch (JSONException e) {
+            PluginLog.d("ContentDigest", e.getMessage());
+        }
+    }
+
+    public boolean isFinished() {
+        return result != null;
+    }
+
+    /**
+     * @return bytes fed so far
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return hex SHA-256 after {@link #finish()}, null if it was not requested
+     */
+    public String getSha256() {
+        return result != null ? result.optString(SHA256, null) : null;
+    }
+
+    /**
+     * @return { sha256, crc32c } with the requested digests, after {@link #finish()}
+     */
+    public JSONObject toJson() {
+        return result != null ? result : new JSONObject();
+    }
+}
@@ -0,0 +1,179 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes a content URI without copying it.
+ *
+ * File-backed sources are read in fixed ranges by several positional reads
+ * in parallel, and the ranges are fed to the digest in order. Parallel reads
+ * keep slow storage and FUSE-backed providers busy while the digest is
+ * computed. Pipes and other streams are read sequentially.
+ */
+public class ContentHasher {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int MAX_PARALLELISM = 8;
+
+    private static final int RANGE_SIZE = 1024 * 1024;
+
+    /**
+     * Range reads of all hashes. Reads never wait on each other, so they
+     * can queue for the few threads there are.
+     */
+    private static final ExecutorService READ_POOL;
+
+    static {
+        int threads = Math.max(2, Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ActionScheduler.NamedThreadFactory("IntentPlugin-hash"));
+        executor.allowCoreThreadTimeOut(true);
+        READ_POOL = executor;
+    }
+
+    private ContentHasher() {
+    }
+
+    /**
+     * Hash a content URI, {@link ContentDigest#finish()} is called at the end
+     *
+     * @param resolver
+     * @param uri
+     * @param digest
+     * @param parallelism ranges read at the same time, at most {@link #MAX_PARALLELISM}
+     * @return bytes hashed
+     */
+    public static long hash(ContentResolver resolver, Uri uri, ContentDigest digest, int parallelism) throws IOException {
+        long started = Metrics.start("hash");
+        long hashed = 0;
+        boolean ok = false;
+        try {
+            digest.reset();
+            hashed = read(resolver, uri, digest, Math.max(1, Math.min(MAX_PARALLELISM, parallelism)));
+            digest.finish();
+            ok = true;
+            return hashed;
+        } finally {
+            Metrics.record("hash", uri.getAuthority(), started, hashed, ok);
+        }
+    }
+
+    private static long read(ContentResolver resolver, Uri uri, ContentDigest digest, int parallelism) throws IOException {
+        AssetFileDescriptor afd = null;
+        try {
+            afd = ProviderGuard.openAssetFileDescriptor(resolver, uri, "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            PluginLog.d("ContentHasher", "No file descriptor for " + uri + ", using a stream: " + e.getMessage());
+        }
+
+        if (afd == null) {
+            InputStream in = ProviderGuard.openInputStream(resolver, uri);
+            if (in == null) {
+                throw new FileNotFoundException("Unable to open " + uri);
+            }
+            try {
+                return readStream(in, digest);
+            } finally {
+                in.close();
+            }
+        }
+
+        try {
+            FileInputStream in = afd.createInputStream();
+            try {
+                long length = afd.getLength();
+                if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    long statSize = afd.getParcelFileDescriptor().getStatSize();
+                    length = statSize >= 0 ? statSize - afd.getStartOffset() : -1;
+                }
+                if (length < 0) {
+                    return readStream(in, digest);
+                }
+                return readRanges(in.getChannel(), afd.getStartOffset(), length, digest, parallelism);
+            } finally {
+                in.close();
+            }
+        } finally {
+            afd.close();
+        }
+    }
+
+    private static long readStream(InputStream in, ContentDigest digest) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long hashed = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(ByteBuffer.wrap(buffer, 0, read));
+            hashed += read;
+        }
+        return hashed;
+    }
+
+    /**
+     * Keep up to parallelism ranges in flight and hash them in order
+     */
+    private static long readRanges(final FileChannel channel, final long start, final long length,
+                                   ContentDigest digest, int parallelism) throws IOException {
+        ArrayDeque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+        long next = 0;
+        long hashed = 0;
+        try {
+            while (hashed < length) {
+                while (next < length && inFlight.size() < parallelism) {
+                    final long offset = next;
+                    final int size = (int) Math.min(RANGE_SIZE, length - offset);
+                    inFlight.add(READ_POOL.submit(new Callable<ByteBuffer>() {
+                        @Override
+                        public ByteBuffer call() throws IOException {
+                            ByteBuffer range = ByteBuffer.allocate(size);
+                            while (range.hasRemaining()) {
+                                if (channel.read(range, start + offset + range.position()) == -1) {
+                                    break;
+                                }
+                            }
+                            range.flip();
+                            return range;
+                        }
+                    }));
+                    next += size;
+                }
+                ByteBuffer range = inFlight.poll().get();
+                if (!range.hasRemaining()) {
+                    // File is shorter than its reported size
+                    break;
+                }
+                digest.update(range);
+                hashed += range.remaining();
+            }
+            return hashed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Hash interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            for (Future<ByteBuffer> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+}
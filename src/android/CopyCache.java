@@ -0,0 +1,483 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent index of the fallback copies made by FileUtils.
+ *
+ * Copies are keyed by source URI, size and last-modified time. Asking again
+ * for a URI that was already copied returns the existing file without
+ * re-reading the source. The total size of all copies is capped. When a new
+ * copy goes over the budget, the least recently used copies are deleted,
+ * except the new copy and copies handed out within
+ * {@link StorageJanitor#IN_USE_MS}. This is the only budget of indexed copies,
+ * StorageJanitor's folder quota leaves them alone.
+ *
+ * If hash verification is on, a SHA-256 of every copy is stored, and a cached
+ * copy is checked against it before it is returned. The check runs outside
+ * the cache lock, so hashing a large copy doesn't hold up other lookups.
+ *
+ * The index lives in filesDir/copy_cache.json, so it survives restarts.
+ * Changes, including the LRU order, are kept in memory and written a few
+ * seconds later on a background thread, so a burst of hits costs one write.
+ */
+public class CopyCache {
+
+    private static final String TAG = "CopyCache";
+    private static final String INDEX_FILE = "copy_cache.json";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    private static final long SAVE_DELAY_MS = 2000;
+
+    private static CopyCache instance;
+
+    private final File indexFile;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private boolean verifyHash = false;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(
+            new ActionScheduler.NamedThreadFactory("IntentPlugin-copycache"));
+    private ScheduledFuture<?> pendingSave;
+
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            String index;
+            synchronized (CopyCache.this) {
+                pendingSave = null;
+                index = serialize();
+            }
+            if (index != null) {
+                write(index);
+            }
+        }
+    };
+
+    static final class Entry {
+        final String key;
+        final String path;
+        final long bytes;
+        final String sha256;
+
+        Entry(String key, String path, long bytes, String sha256) {
+            this.key = key;
+            this.path = path;
+            this.bytes = bytes;
+            this.sha256 = sha256;
+        }
+    }
+
+    public static synchronized CopyCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new CopyCache(new File(context.getApplicationContext().getFilesDir(), INDEX_FILE));
+        }
+        return instance;
+    }
+
+    /**
+     * Write pending changes of the cache, if it was loaded at all
+     */
+    public static synchronized void flushInstance() {
+        if (instance != null) {
+            instance.flush();
+        }
+    }
+
+    private CopyCache(File indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    /**
+     * Build a cache key from the source identity
+     *
+     * @param uri source URI
+     * @param size source size in bytes
+     * @param lastModified source last-modified column, 0 if the provider has none
+     */
+    public static String key(Uri uri, long size, long lastModified) {
+        return uri + "|" + size + "|" + lastModified;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        if (trim(null)) {
+            saveLater();
+        }
+    }
+
+    public synchronized void setVerifyHash(boolean verifyHash) {
+        this.verifyHash = verifyHash;
+    }
+
+    public synchronized boolean isVerifyHash() {
+        return verifyHash;
+    }
+
+    /**
+     * Look up an existing copy
+     *
+     * @param key see {@link #key(Uri, long, long)}
+     * @return path of the cached copy, or null on a miss
+     */
+    public String get(String key) {
+        return lookup(key, true);
+    }
+
+    /**
+     * Look up an existing copy without counting a hit or miss, for a second
+     * look after {@link #get(String)} already counted one
+     *
+     * @param key see {@link #key(Uri, long, long)}
+     * @return path of the cached copy, or null on a miss
+     */
+    public String peek(String key) {
+        return lookup(key, false);
+    }
+
+    private String lookup(String key, boolean count) {
+        for (;;) {
+            Entry entry;
+            boolean verify;
+            synchronized (this) {
+                entry = entries.get(key);
+                if (entry == null) {
+                    if (count) {
+                        misses++;
+                    }
+                    return null;
+                }
+                verify = verifyHash && entry.sha256 != null;
+            }
+
+            File file = new File(entry.path);
+            boolean valid = file.isFile() && file.length() == entry.bytes;
+            if (valid && verify) {
+                valid = entry.sha256.equals(sha256(file));
+            }
+
+            synchronized (this) {
+                if (entries.get(key) != entry) {
+                    // Replaced or evicted while it was checked, look again
+                    continue;
+                }
+                if (valid) {
+                    if (count) {
+                        hits++;
+                    }
+                    StorageJanitor.recordAccess(entry.path);
+                    saveLater();
+                    return entry.path;
+                }
+                PluginLog.d(TAG, "Dropping stale copy " + entry.path);
+                remove(entry);
+                saveLater();
+                if (count) {
+                    misses++;
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Record a finished copy and evict older copies if over budget
+     *
+     * @param key see {@link #key(Uri, long, long)}
+     * @param file the copy
+     * @param sha256 hex digest of the copy, may be null
+     */
+    public synchronized void put(String key, File file, String sha256) {
+        Entry previous = entries.get(key);
+        if (previous != null && !previous.path.equals(file.getPath())) {
+            remove(previous);
+        } else if (previous != null) {
+            totalBytes -= previous.bytes;
+            entries.remove(key);
+        }
+
+        Entry entry = new Entry(key, file.getPath(), file.length(), sha256);
+        entries.put(key, entry);
+        totalBytes += entry.bytes;
+        StorageJanitor.recordAccess(entry.path);
+        trim(key);
+        saveLater();
+    }
+
+    /**
+     * Stop reusing the copies of a URI. The files stay, the app may still be
+     * reading them; StorageJanitor deletes them once they are unused.
+     *
+     * @param uri source URI, null for all copies
+     * @return number of copies dropped
+     */
+    public synchronized int invalidate(String uri) {
+        int dropped = 0;
+        String prefix = uri + "|";
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (uri == null || entry.key.startsWith(prefix)) {
+                it.remove();
+                totalBytes -= entry.bytes;
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            saveLater();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return paths of all indexed copies
+     */
+    public synchronized Set<String> getPaths() {
+        Set<String> paths = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            paths.add(entry.path);
+        }
+        return paths;
+    }
+
+    /**
+     * Drop the entry of a copy that was deleted by someone else
+     *
+     * @param path the deleted copy
+     */
+    public synchronized void forget(String path) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.path.equals(path)) {
+                it.remove();
+                totalBytes -= entry.bytes;
+                saveLater();
+                return;
+            }
+        }
+    }
+
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("entries", entries.size());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    /**
+     * Evict least recently used copies until the cache fits its budget
+     *
+     * @param keep key that must not be evicted, may be null
+     * @return true if anything was evicted
+     */
+    private boolean trim(String keep) {
+        boolean evicted = false;
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.key.equals(keep) || StorageJanitor.isInUse(entry.path, now)) {
+                continue;
+            }
+            it.remove();
+            deleteCopy(entry);
+            evictions++;
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        deleteCopy(entry);
+    }
+
+    private void deleteCopy(Entry entry) {
+        totalBytes -= entry.bytes;
+        File file = new File(entry.path);
+        if (file.exists() && !file.delete()) {
+            PluginLog.w(TAG, "Unable to delete " + entry.path);
+        }
+        // Copies live in their own collision-avoidance directory, drop it if it is now empty
+        File parent = file.getParentFile();
+        if (parent != null) {
+            String[] children = parent.list();
+            if (children != null && children.length == 0) {
+                parent.delete();
+            }
+        }
+    }
+
+    private void load() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try {
+            byte[] bytes = new byte[(int) indexFile.length()];
+            InputStream in = new FileInputStream(indexFile);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+
+            JSONArray array = new JSONArray(new String(bytes, UTF8));
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject json = array.getJSONObject(i);
+                Entry entry = new Entry(json.getString("key"), json.getString("path"),
+                        json.getLong("bytes"), json.optString("sha256", null));
+                File file = new File(entry.path);
+                if (file.isFile() && file.length() == entry.bytes) {
+                    entries.put(entry.key, entry);
+                    totalBytes += entry.bytes;
+                }
+            }
+        } catch (Exception e) {
+            PluginLog.w(TAG, "Discarding unreadable copy cache index: " + e.getMessage());
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    /**
+     * Write pending changes now, e.g. when the app is paused. Doesn't wait
+     * for the write.
+     */
+    public synchronized void flush() {
+        if (pendingSave != null && pendingSave.cancel(false)) {
+            pendingSave = null;
+            submitSave(0);
+        }
+    }
+
+    /**
+     * Write the index once no change came in for {@link #SAVE_DELAY_MS}.
+     * Must hold the lock.
+     */
+    private void saveLater() {
+        if (pendingSave == null) {
+            submitSave(SAVE_DELAY_MS);
+        }
+    }
+
+    private void submitSave(long delayMs) {
+        try {
+            pendingSave = saver.schedule(saveTask, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            PluginLog.w(TAG, "Unable to schedule copy cache index write: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the index in LRU order, must hold the lock
+     */
+    private String serialize() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries.values()) {
+                JSONObject json = new JSONObject();
+                json.put("key", entry.key);
+                json.put("path", entry.path);
+                json.put("bytes", entry.bytes);
+                if (entry.sha256 != null) {
+                    json.put("sha256", entry.sha256);
+                }
+                array.put(json);
+            }
+            return array.toString();
+        } catch (JSONException e) {
+            PluginLog.w(TAG, "Unable to write copy cache index: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the index through a temp file so a crash never leaves a
+     * truncated index behind. Only called on the saver thread.
+     */
+    private void write(String index) {
+        try {
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(index.getBytes(UTF8));
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(indexFile)) {
+                PluginLog.w(TAG, "Unable to write copy cache index");
+            }
+        } catch (Exception e) {
+            PluginLog.w(TAG, "Unable to write copy cache index: " + e.getMessage());
+        }
+    }
+
+    static String sha256(File file) {
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+                return toHex(digest.digest());
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            PluginLog.w(TAG, "Unable to hash " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
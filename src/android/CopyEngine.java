@@ -0,0 +1,833 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copies content URIs into local files.
+ *
+ * The source is opened through openAssetFileDescriptor. When it is backed by
+ * a real file (known stat size) and no digest is needed, the copy is done with
+ * FileChannel.transferTo, which lets the kernel move the bytes. Pipes and
+ * other streams are copied through a pooled 1 MB direct buffer.
+ *
+ * When a digest is requested, reading, hashing and writing run as a
+ * pipeline: the calling thread reads into a ring of buffers, and a writer
+ * and a hasher thread consume each buffer in order. Hashing then only
+ * slows the copy down if it is slower than the disk.
+ *
+ * Bytes are written to "target.part" and renamed to the target only once the
+ * copy is complete, so a failed copy never looks like a valid file. Only one
+ * copy per target runs at a time, others wait for it (see {@link #lock}).
+ *
+ * While copying, the written length is committed to "target.part.ckpt"
+ * every {@link #CHECKPOINT_BYTES} bytes, after the ".part" file has been
+ * fsynced. A later copy resumes from the committed length only, anything
+ * after it is cut off first, since it may not have reached the disk before
+ * a crash. A copy that fails with an I/O error commits what it wrote. A
+ * cancelled copy deletes its ".part" file. The checkpoint also records
+ * which source it was written for (URI, size and last-modified time), and a
+ * copy of any other source into the same target starts over.
+ *
+ * Whether the target is fsynced depends on the fsync policy:
+ *  - "never":  leave flushing to the OS (default)
+ *  - "always": fsync every copy
+ *  - "large":  fsync copies of at least {@link #FSYNC_LARGE_THRESHOLD} bytes
+ */
+public class CopyEngine {
+
+    public static final String FSYNC_NEVER = "never";
+    public static final String FSYNC_ALWAYS = "always";
+    public static final String FSYNC_LARGE = "large";
+
+    static final long FSYNC_LARGE_THRESHOLD = 8L * 1024 * 1024;
+
+    static final String PART_SUFFIX = ".part";
+    static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    static final long CHECKPOINT_BYTES = 16L * 1024 * 1024;
+
+    private static final String TAG = "CopyEngine";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long TRANSFER_SLICE = 8L * 1024 * 1024;
+    private static final ArrayBlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(4);
+    private static final int PIPELINE_DEPTH = 4;
+
+    // Two stages per pipelined copy
+    private static final int MAX_PIPELINE_THREADS = 16;
+
+    /**
+     * Writer and hasher stages of pipelined copies. Nothing is queued: a
+     * stage waiting for a thread would stall its copy, so when all threads
+     * are busy the copy hashes on its own thread instead.
+     */
+    private static final ExecutorService PIPELINE_POOL;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, MAX_PIPELINE_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ActionScheduler.NamedThreadFactory("IntentPlugin-pipeline"));
+        PIPELINE_POOL = executor;
+    }
+
+    private static volatile String fsyncPolicy = FSYNC_NEVER;
+
+    private static final HashMap<String, TargetLock> TARGET_LOCKS = new HashMap<>();
+
+    /**
+     * Lock on one target file, held by one copy at a time. Reentrant, so a
+     * caller holding it can still call {@link #copy}.
+     */
+    public static final class TargetLock {
+        private final String path;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users = 0;
+
+        private TargetLock(String path) {
+            this.path = path;
+        }
+
+        public void release() {
+            lock.unlock();
+            synchronized (TARGET_LOCKS) {
+                if (--users == 0) {
+                    TARGET_LOCKS.remove(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Progress reporting and cancellation for one copy
+     */
+    public static class Control {
+
+        public interface Listener {
+            /**
+             * @param bytes bytes copied so far, including resumed bytes
+             * @param total source size, -1 if unknown
+             * @param bytesPerSecond average rate of this attempt
+             */
+            void onProgress(long bytes, long total, long bytesPerSecond);
+        }
+
+        private final Listener listener;
+        private final long intervalMs;
+        private volatile boolean cancelled = false;
+
+        private long startedAt;
+        private long startBytes;
+        private long lastReport;
+
+        /**
+         * @param listener may be null
+         * @param intervalMs minimum time between two progress reports
+         */
+        public Control(Listener listener, long intervalMs) {
+            this.listener = listener;
+            this.intervalMs = intervalMs;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void start(long resumedBytes) {
+            startedAt = SystemClock.elapsedRealtime();
+            startBytes = resumedBytes;
+            lastReport = 0;
+        }
+
+        void progress(long bytes, long total, boolean force) throws CancelledException {
+            if (cancelled) {
+                throw new CancelledException();
+            }
+            if (listener == null) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (force || now - lastReport >= intervalMs) {
+                lastReport = now;
+                long elapsed = Math.max(1, now - startedAt);
+                listener.onProgress(bytes, total, (bytes - startBytes) * 1000 / elapsed);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a copy is cancelled through its {@link Control}
+     */
+    public static class CancelledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CancelledException() {
+            super("Copy cancelled");
+        }
+    }
+
+    public static void setFsyncPolicy(String policy) {
+        if (FSYNC_ALWAYS.equalsIgnoreCase(policy)) {
+            fsyncPolicy = FSYNC_ALWAYS;
+        } else if (FSYNC_LARGE.equalsIgnoreCase(policy)) {
+            fsyncPolicy = FSYNC_LARGE;
+        } else {
+            fsyncPolicy = FSYNC_NEVER;
+        }
+    }
+
+    /**
+     * Wait until no other copy writes the target, e.g. the same URI imported
+     * and resolved at the same time. Callers that hold the lock can check
+     * whether the target was made while they waited before copying.
+     *
+     * @param target file to write
+     * @return the lock, release it when done
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public static TargetLock lock(File target) throws InterruptedIOException {
+        String path = target.getAbsolutePath();
+        TargetLock targetLock;
+        synchronized (TARGET_LOCKS) {
+            targetLock = TARGET_LOCKS.get(path);
+            if (targetLock == null) {
+                targetLock = new TargetLock(path);
+                TARGET_LOCKS.put(path, targetLock);
+            }
+            targetLock.users++;
+        }
+        try {
+            targetLock.lock.lockInterruptibly();
+            return targetLock;
+        } catch (InterruptedException e) {
+            synchronized (TARGET_LOCKS) {
+                if (--targetLock.users == 0) {
+                    TARGET_LOCKS.remove(path);
+                }
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + target);
+        }
+    }
+
+    /**
+     * Copy a content URI into a file
+     *
+     * @param resolver
+     * @param source content URI to read
+     * @param target file to write, replaced if it exists
+     * @param digest updated with every byte copied, may be null
+     * @return number of bytes copied
+     * @throws IOException if the source can't be opened or the copy fails
+     */
+    public static long copy(ContentResolver resolver, Uri source, File target, ContentDigest digest) throws IOException {
+        return copy(resolver, source, target, digest, null);
+    }
+
+    /**
+     * Copy a content URI into a file
+     *
+     * @param resolver
+     * @param source content URI to read
+     * @param target file to write, replaced if it exists
+     * @param digest updated with every byte of the target, may be null
+     * @param control progress and cancellation, may be null
+     * @return size of the target
+     * @throws CancelledException if the copy was cancelled
+     * @throws IOException if the source can't be opened or the copy fails
+     */
+    public static long copy(ContentResolver resolver, Uri source, File target, ContentDigest digest, Control control) throws IOException {
+        return copy(resolver, source, target, digest, control, source.toString());
+    }
+
+    /**
+     * Copy a content URI into a file
+     *
+     * @param resolver
+     * @param source content URI to read
+     * @param target file to write, replaced if it exists
+     * @param digest updated with every byte of the target, may be null
+     * @param control progress and cancellation, may be null
+     * @param sourceKey identifies the source version, e.g. {@link CopyCache#key}. A partial
+     *                  copy is only resumed if it was written for the same key.
+     * @return size of the target
+     * @throws CancelledException if the copy was cancelled
+     * @throws IOException if the source can't be opened or the copy fails
+     */
+    public static long copy(ContentResolver resolver, Uri source, File target, ContentDigest digest, Control control,
+                            String sourceKey) throws IOException {
+        File part = new File(target.getPath() + PART_SUFFIX);
+        Checkpoint checkpoint = new Checkpoint(part, sourceKey);
+        TargetLock targetLock = lock(target);
+        long started = Metrics.start("copy");
+        long size = 0;
+        boolean ok = false;
+        try {
+            size = copyToPart(resolver, source, part, checkpoint, digest, control);
+            if (!part.renameTo(target)) {
+                throw new IOException("Unable to move " + part + " to " + target);
+            }
+            checkpoint.delete();
+            ok = true;
+            return size;
+        } catch (CancelledException e) {
+            part.delete();
+            checkpoint.delete();
+            throw e;
+        } catch (IOException e) {
+            checkpoint.commitAll();
+            throw e;
+        } finally {
+            targetLock.release();
+            Metrics.record("copy", source.getAuthority(), started, size, ok);
+        }
+    }
+
+    private static long copyToPart(ContentResolver resolver, Uri source, File part, Checkpoint checkpoint,
+                                   ContentDigest digest, Control control) throws IOException {
+        long resumeFrom = checkpoint.restore();
+
+        AssetFileDescriptor afd = null;
+        try {
+            afd = ProviderGuard.openAssetFileDescriptor(resolver, source, "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            PluginLog.d(TAG, "No file descriptor for " + source + ", using a stream: " + e.getMessage());
+        }
+
+        if (afd == null) {
+            InputStream in = ProviderGuard.openInputStream(resolver, source);
+            if (in == null) {
+                throw new FileNotFoundException("Unable to open " + source);
+            }
+            try {
+                if (resumeFrom > 0 && skipFully(in, resumeFrom) < resumeFrom) {
+                    // Source is shorter than the partial copy, start over
+                    in.close();
+                    in = ProviderGuard.openInputStream(resolver, source);
+                    if (in == null) {
+                        throw new FileNotFoundException("Unable to open " + source);
+                    }
+                    resumeFrom = 0;
+                    checkpoint.delete();
+                }
+                return copy(Channels.newChannel(in), -1, part, checkpoint, resumeFrom, digest, control);
+            } finally {
+                in.close();
+            }
+        }
+
+        try {
+            FileInputStream in = afd.createInputStream();
+            try {
+                FileChannel channel = in.getChannel();
+                long length = afd.getLength();
+                if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    long statSize = afd.getParcelFileDescriptor().getStatSize();
+                    length = statSize >= 0 ? statSize - afd.getStartOffset() : -1;
+                }
+                if (length < 0) {
+                    if (resumeFrom > 0 && skipFully(in, resumeFrom) < resumeFrom) {
+                        // Can't reopen a pipe in place, copy it from the start next time
+                        part.delete();
+                        checkpoint.delete();
+                        throw new IOException("Unable to resume " + source);
+                    }
+                    return copy(channel, -1, part, checkpoint, resumeFrom, digest, control);
+                }
+                if (resumeFrom > length) {
+                    resumeFrom = 0;
+                    checkpoint.delete();
+                }
+                if (digest == null) {
+                    return transfer(channel, afd.getStartOffset(), length, part, checkpoint, resumeFrom, control);
+                }
+                channel.position(afd.getStartOffset() + resumeFrom);
+                return copy(channel, length, part, checkpoint, resumeFrom, digest, control);
+            } finally {
+                in.close();
+            }
+        } finally {
+            afd.close();
+        }
+    }
+
+    /**
+     * Copy a file-backed channel with transferTo, in slices so progress can
+     * be reported. If the kernel stops early (some devices cap a single
+     * transfer) the rest goes through the buffer.
+     */
+    private static long transfer(FileChannel source, long start, long length, File part, Checkpoint checkpoint,
+                                 long resumeFrom, Control control) throws IOException {
+        FileOutputStream out = new FileOutputStream(part, resumeFrom > 0);
+        try {
+            FileChannel sink = out.getChannel();
+            long copied = resumeFrom;
+            if (control != null) {
+                control.start(resumeFrom);
+            }
+            while (copied < length) {
+                long transferred = source.transferTo(start + copied, Math.min(TRANSFER_SLICE, length - copied), sink);
+                if (transferred <= 0) {
+                    break;
+                }
+                copied += transferred;
+                checkpoint.advance(sink, copied);
+                if (control != null) {
+                    control.progress(copied, length, false);
+                }
+            }
+            if (copied < length) {
+                source.position(start + copied);
+                copied += pump(source, sink, checkpoint, null, length - copied, copied, length, control);
+            }
+            if (control != null) {
+                control.progress(copied, length, true);
+            }
+            finish(out, copied);
+            return copied;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copy any channel through a pooled direct buffer
+     *
+     * @param length source size, -1 to copy until end of stream
+     * @param resumeFrom bytes already in the part file, the source is positioned after them
+     */
+    private static long copy(ReadableByteChannel source, long length, File part, Checkpoint checkpoint, long resumeFrom,
+                             ContentDigest digest, Control control) throws IOException {
+        if (resumeFrom > 0 && digest != null) {
+            hashExisting(part, resumeFrom, digest);
+        }
+        FileOutputStream out = new FileOutputStream(part, resumeFrom > 0);
+        try {
+            if (control != null) {
+                control.start(resumeFrom);
+            }
+            long limit = length >= 0 ? length - resumeFrom : -1;
+            long copied = resumeFrom + (digest != null
+                    ? pipeline(source, out.getChannel(), checkpoint, digest, limit, resumeFrom, length, control)
+                    : pump(source, out.getChannel(), checkpoint, null, limit, resumeFrom, length, control));
+            if (control != null) {
+                control.progress(copied, length, true);
+            }
+            finish(out, copied);
+            return copied;
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long pump(ReadableByteChannel source, FileChannel sink, Checkpoint checkpoint, ContentDigest digest,
+                             long limit, long offset, long total, Control control) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            long copied = 0;
+            while (limit < 0 || copied < limit) {
+                if (limit >= 0 && limit - copied < buffer.capacity()) {
+                    buffer.limit((int) (limit - copied));
+                }
+                if (source.read(buffer) == -1) {
+                    break;
+                }
+                buffer.flip();
+                if (digest != null) {
+                    digest.update(buffer);
+                }
+                while (buffer.hasRemaining()) {
+                    copied += sink.write(buffer);
+                }
+                buffer.clear();
+                checkpoint.advance(sink, offset + copied);
+                if (control != null) {
+                    control.progress(offset + copied, total, false);
+                }
+            }
+            return copied;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * A buffer travelling through the pipeline, back in the free ring once
+     * both the writer and the hasher are done with it
+     */
+    private static final class Slot {
+        final ByteBuffer buffer;
+        final AtomicInteger pending = new AtomicInteger();
+
+        Slot(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private static final Slot END = new Slot(ByteBuffer.allocate(0));
+
+    /**
+     * Copy with the read, write and hash stages on separate threads
+     *
+     * @return bytes copied
+     */
+    private static long pipeline(ReadableByteChannel source, final FileChannel sink, final Checkpoint checkpoint,
+                                 final ContentDigest digest, long limit, final long offset, long total,
+                                 Control control) throws IOException {
+        final BlockingQueue<Slot> free = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        final BlockingQueue<Slot> toWrite = new ArrayBlockingQueue<>(PIPELINE_DEPTH + 1);
+        final BlockingQueue<Slot> toHash = new ArrayBlockingQueue<>(PIPELINE_DEPTH + 1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        Future<?> writer;
+        Future<?> hasher;
+        try {
+            writer = PIPELINE_POOL.submit(new Stage(toWrite, free, failure) {
+                private long written = offset;
+
+                @Override
+                void consume(ByteBuffer buffer) throws IOException {
+                    while (buffer.hasRemaining()) {
+                        written += sink.write(buffer);
+                    }
+                    checkpoint.advance(sink, written);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return pump(source, sink, checkpoint, digest, limit, offset, total, control);
+        }
+        try {
+            hasher = PIPELINE_POOL.submit(new Stage(toHash, free, failure) {
+                @Override
+                void consume(ByteBuffer buffer) {
+                    digest.update(buffer);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            toWrite.offer(END);
+            awaitStage(writer, failure);
+            return pump(source, sink, checkpoint, digest, limit, offset, total, control);
+        }
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            free.add(new Slot(acquireBuffer()));
+        }
+
+        long copied = 0;
+        try {
+            while ((limit < 0 || copied < limit) && failure.get() == null) {
+                Slot slot = free.take();
+                ByteBuffer buffer = slot.buffer;
+                buffer.clear();
+                if (limit >= 0 && limit - copied < buffer.capacity()) {
+                    buffer.limit((int) (limit - copied));
+                }
+                int read = source.read(buffer);
+                if (read == -1) {
+                    free.add(slot);
+                    break;
+                }
+                buffer.flip();
+                slot.pending.set(2);
+                toWrite.put(slot);
+                toHash.put(slot);
+                copied += read;
+                if (control != null) {
+                    control.progress(offset + copied, total, false);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new InterruptedIOException("Copy interrupted"));
+        } finally {
+            toWrite.offer(END);
+            toHash.offer(END);
+            awaitStage(writer, failure);
+            awaitStage(hasher, failure);
+            for (Slot slot : free) {
+                releaseBuffer(slot.buffer);
+            }
+        }
+
+        Exception error = failure.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException(error);
+        }
+        return copied;
+    }
+
+    private static void awaitStage(Future<?> stage, AtomicReference<Exception> failure) {
+        try {
+            stage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stage.cancel(true);
+            failure.compareAndSet(null, new InterruptedIOException("Copy interrupted"));
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Consumer stage, takes slots in order until END. After a failure in any
+     * stage it only hands slots back, so the reader never blocks.
+     */
+    private abstract static class Stage implements Runnable {
+        private final BlockingQueue<Slot> input;
+        private final BlockingQueue<Slot> free;
+        private final AtomicReference<Exception> failure;
+
+        Stage(BlockingQueue<Slot> input, BlockingQueue<Slot> free, AtomicReference<Exception> failure) {
+            this.input = input;
+            this.free = free;
+            this.failure = failure;
+        }
+
+        abstract void consume(ByteBuffer buffer) throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                Slot slot;
+                while ((slot = input.take()) != END) {
+                    try {
+                        if (failure.get() == null) {
+                            consume(slot.buffer.duplicate());
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        if (slot.pending.decrementAndGet() == 0) {
+                            free.add(slot);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, new InterruptedIOException("Copy interrupted"));
+            }
+        }
+    }
+
+    /**
+     * Committed length of a ".part" file and the source it was copied from.
+     * Only bytes that were fsynced before the length was saved, for the same
+     * source, are trusted on resume.
+     */
+    static final class Checkpoint {
+        private final File part;
+        private final File file;
+        private final String sourceKey;
+        private long committed = 0;
+
+        Checkpoint(File part, String sourceKey) {
+            this.part = part;
+            this.file = new File(part.getPath() + CHECKPOINT_SUFFIX);
+            this.sourceKey = sourceKey;
+        }
+
+        /**
+         * Cut the part file back to its committed length, or to nothing if
+         * it was copied from another source
+         *
+         * @return bytes to resume after, 0 to start over
+         */
+        long restore() throws IOException {
+            long length = part.isFile() ? part.length() : 0;
+            long saved = file.isFile() ? read() : 0;
+            committed = Math.max(0, Math.min(saved, length));
+            if (length > committed) {
+                RandomAccessFile raf = new RandomAccessFile(part, "rw");
+                try {
+                    raf.getChannel().truncate(committed);
+                } finally {
+                    raf.close();
+                }
+            }
+            return committed;
+        }
+
+        /**
+         * Commit the written length once it is {@link #CHECKPOINT_BYTES}
+         * past the last commit
+         *
+         * @param sink channel of the part file
+         * @param written length of the part file
+         */
+        void advance(FileChannel sink, long written) throws IOException {
+            if (written - committed >= CHECKPOINT_BYTES) {
+                sink.force(false);
+                save(written);
+            }
+        }
+
+        /**
+         * Commit whatever is in the part file, after a failed copy
+         */
+        void commitAll() {
+            if (!part.isFile()) {
+                return;
+            }
+            try {
+                RandomAccessFile raf = new RandomAccessFile(part, "rw");
+                try {
+                    raf.getFD().sync();
+                    save(raf.length());
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                PluginLog.d(TAG, "Failed to commit " + part + ": " + e.getMessage());
+            }
+        }
+
+        void delete() {
+            file.delete();
+            committed = 0;
+        }
+
+        private long read() {
+            try {
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    long length = in.readLong();
+                    String key = in.readUTF();
+                    if (!key.equals(sourceKey)) {
+                        PluginLog.d(TAG, part + " was copied from another source, starting over");
+                        return 0;
+                    }
+                    return length;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * Written to a temporary file and renamed, so a crash leaves either
+         * the old or the new length
+         */
+        private void save(long length) throws IOException {
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeLong(length);
+                data.writeUTF(sourceKey);
+                data.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Unable to save " + file);
+            }
+            committed = length;
+        }
+    }
+
+    /**
+     * Feed the bytes of a partial copy into the digest before resuming
+     */
+    private static void hashExisting(File part, long length, ContentDigest digest) throws IOException {
+        FileInputStream in = new FileInputStream(part);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                long hashed = 0;
+                while (hashed < length) {
+                    if (length - hashed < buffer.capacity()) {
+                        buffer.limit((int) (length - hashed));
+                    }
+                    int read = channel.read(buffer);
+                    if (read == -1) {
+                        break;
+                    }
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                    hashed += read;
+                }
+            } finally {
+                releaseBuffer(buffer);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Skip bytes of a stream, returns fewer than requested only at end of stream
+     */
+    private static long skipFully(InputStream in, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            long n = in.skip(count - skipped);
+            if (n <= 0) {
+                // skip() may stop early on pipes, a read tells us if the stream has ended
+                if (in.read() == -1) {
+                    break;
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+        return skipped;
+    }
+
+    private static void finish(FileOutputStream out, long length) throws IOException {
+        String policy = fsyncPolicy;
+        if (FSYNC_ALWAYS.equals(policy) || (FSYNC_LARGE.equals(policy) && length >= FSYNC_LARGE_THRESHOLD)) {
+            out.getFD().sync();
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        BUFFER_POOL.offer(buffer);
+    }
+}
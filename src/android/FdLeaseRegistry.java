@@ -0,0 +1,188 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Descriptor-backed paths for content URIs, so a consumer that needs a file
+ * path can read the provider's file directly instead of a copy of it.
+ *
+ * A lease keeps the provider's ParcelFileDescriptor open and hands out
+ * /proc/self/fd/N, which any code in the app process can open. The
+ * descriptor is closed when the lease is released or when it times out,
+ * whichever comes first. The number of leases held at the same time is
+ * capped, since every lease holds a file descriptor of the process.
+ *
+ * Only seekable files are leased; a pipe can only be read once, so those
+ * sources are left to the regular copy.
+ */
+public class FdLeaseRegistry {
+
+    private static final String TAG = "FdLeaseRegistry";
+    private static final String FD_PATH = "/proc/self/fd/";
+
+    public static final int DEFAULT_MAX_LEASES = 32;
+    public static final long DEFAULT_TIMEOUT_MS = 5 * 60 * 1000L;
+
+    private final ContentResolver resolver;
+    private final int maxLeases;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger nextHandle = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Lease> leases = new ConcurrentHashMap<>();
+
+    private final AtomicLong leased = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public static final class Lease {
+        public final int handle;
+        public final String path;
+        public final long size;
+        public final long expiresAt;
+
+        final ParcelFileDescriptor descriptor;
+        ScheduledFuture<?> timeout;
+
+        Lease(int handle, ParcelFileDescriptor descriptor, long expiresAt) {
+            this.handle = handle;
+            this.descriptor = descriptor;
+            this.path = FD_PATH + descriptor.getFd();
+            this.size = descriptor.getStatSize();
+            this.expiresAt = expiresAt;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("path", path);
+            json.put("handle", handle);
+            json.put("size", size);
+            json.put("expiresAt", expiresAt);
+            return json;
+        }
+    }
+
+    /**
+     * @param resolver
+     * @param maxLeases descriptors that may be leased at the same time
+     */
+    public FdLeaseRegistry(ContentResolver resolver, int maxLeases) {
+        this.resolver = resolver;
+        this.maxLeases = Math.max(1, maxLeases);
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ActionScheduler.NamedThreadFactory("IntentPlugin-lease"));
+    }
+
+    /**
+     * Lease a descriptor-backed path
+     *
+     * @param uri content URI
+     * @param timeoutMs the lease is released after this long, at the latest
+     * @return the lease
+     * @throws IOException if the provider has no seekable file for the URI or
+     *         too many leases are held
+     */
+    public Lease lease(Uri uri, long timeoutMs) throws IOException {
+        if (leases.size() >= maxLeases) {
+            rejected.incrementAndGet();
+            throw new IOException("Too many leased descriptors (" + maxLeases + ")");
+        }
+
+        ParcelFileDescriptor descriptor = ProviderGuard.openFileDescriptor(resolver, uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("No file descriptor for " + uri);
+        }
+        if (descriptor.getStatSize() < 0) {
+            descriptor.close();
+            throw new IOException("Not a seekable file: " + uri);
+        }
+
+        long timeout = timeoutMs > 0 ? timeoutMs : DEFAULT_TIMEOUT_MS;
+        final Lease lease = new Lease(nextHandle.incrementAndGet(), descriptor, System.currentTimeMillis() + timeout);
+        synchronized (this) {
+            // Checked again, other leases may have been taken while the provider opened the file
+            if (leases.size() >= maxLeases) {
+                rejected.incrementAndGet();
+                descriptor.close();
+                throw new IOException("Too many leased descriptors (" + maxLeases + ")");
+            }
+            leases.put(lease.handle, lease);
+        }
+        lease.timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (close(lease.handle)) {
+                    expired.incrementAndGet();
+                    PluginLog.d(TAG, "Lease " + lease.handle + " timed out");
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        leased.incrementAndGet();
+        return lease;
+    }
+
+    /**
+     * Release a lease, its path can't be opened anymore afterwards. Streams
+     * already opened on the path stay readable.
+     *
+     * @return false if the lease was already released or timed out
+     */
+    public boolean release(int handle) {
+        Lease lease = leases.get(handle);
+        if (lease != null && lease.timeout != null) {
+            lease.timeout.cancel(false);
+        }
+        if (close(handle)) {
+            released.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return { open, maxLeases, leased, released, expired, rejected }
+     */
+    public JSONObject getStats() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("open", leases.size());
+        json.put("maxLeases", maxLeases);
+        json.put("leased", leased.get());
+        json.put("released", released.get());
+        json.put("expired", expired.get());
+        json.put("rejected", rejected.get());
+        return json;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        for (Integer handle : leases.keySet()) {
+            close(handle);
+        }
+    }
+
+    private boolean close(int handle) {
+        Lease lease = leases.remove(handle);
+        if (lease == null) {
+            return false;
+        }
+        try {
+            lease.descriptor.close();
+        } catch (IOException e) {
+            PluginLog.d(TAG, "Failed to close lease " + handle + ": " + e.getMessage());
+        }
+        return true;
+    }
+}
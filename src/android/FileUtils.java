@@ -10,126 +10,297 @@ import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import android.text.TextUtils;
-import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class FileUtils {
     public static String FALLBACK_COPY_FOLDER = "upload_part";
+    public static String WHATSAPP_COPY_FOLDER = "whatsapp";
+    public static String DRIVE_COPY_FOLDER = "drive";
 
     private static String TAG = "FileUtils";
 
-    private static Uri contentUri = null;
-
     Context context;
 
+    private ContentDigest digest;
+
+    // Source of the copy made or reused by the last getPath, null for a direct path
+    private SourceInfo copiedSource;
+
     public FileUtils(Context context) {
         this.context = context;
     }
 
-    @SuppressLint("NewApi")
-    public String getPath(final Uri uri) {
-        // check here to KITKAT or new version
-        final boolean isKitKat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
-        String selection = null;
-        String[] selectionArgs = null;
-        // DocumentProvider
+    /**
+     * Hash the bytes of any copy made while resolving. The digest is left
+     * unfinished if no copy was made, e.g. the path was found directly or
+     * an earlier copy was reused.
+     *
+     * @param digest may be null
+     */
+    public void setDigest(ContentDigest digest) {
+        this.digest = digest;
+    }
 
-        if (isKitKat) {
-            // ExternalStorageProvider
+    /**
+     * One way of turning a URI into a file path. Strategies are tried in
+     * order; the first one that returns a path wins.
+     */
+    public abstract static class PathStrategy {
+        private final String name;
+        private final boolean copies;
 
-            if (isExternalStorageDocument(uri)) {
-                final String docId = DocumentsContract.getDocumentId(uri);
-                final String[] split = docId.split(":");
-                final String type = split[0];
+        protected PathStrategy(String name) {
+            this(name, false);
+        }
 
-                String fullPath = getPathFromExtSD(split);
+        /**
+         * @param name
+         * @param copies true if the strategy copies the content instead of
+         *               finding its path, it is then never remembered for
+         *               the authority
+         */
+        protected PathStrategy(String name, boolean copies) {
+            this.name = name;
+            this.copies = copies;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean copies() {
+            return copies;
+        }
+
+        /**
+         * @return true if this strategy applies to the URI at all
+         */
+        public abstract boolean accepts(Uri uri);
+
+        /**
+         * @return the path, or null to let the next strategy try
+         */
+        public abstract String resolve(FileUtils fileUtils, Uri uri) throws Exception;
+    }
+
+    private static final List<PathStrategy> STRATEGIES = new CopyOnWriteArrayList<>(defaultStrategies());
+
+    /**
+     * Strategy that last found a path, per authority. Later URIs from the
+     * same provider try it first and skip the probes that failed before.
+     * Copying strategies are left out: one URI that had to be copied says
+     * nothing about the next one from the same provider.
+     */
+    private static final ConcurrentHashMap<String, PathStrategy> STRATEGY_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Add a strategy in front of the built-in ones
+     */
+    public static void addStrategy(PathStrategy strategy) {
+        STRATEGIES.add(0, strategy);
+        STRATEGY_CACHE.clear();
+    }
+
+    /**
+     * @return name, size and last-modified time of the source if the last
+     *         {@link #getPath(Uri)} copied it, null if it found a direct path
+     */
+    SourceInfo getCopiedSource() {
+        return copiedSource;
+    }
+
+    public String getPath(final Uri uri) {
+        long started = Metrics.start("resolve");
+        copiedSource = null;
+        String path = null;
+        try {
+            path = resolvePath(uri);
+            return path;
+        } finally {
+            Metrics.record("resolve", uri.getAuthority(), started, 0, path != null);
+        }
+    }
 
-                if (fullPath == null || !fileExists(fullPath)) {
-                    Log.d(TAG, "Copy files as a fallback");
-                    fullPath = copyFileToInternalStorage(uri, FALLBACK_COPY_FOLDER);
+    private String resolvePath(final Uri uri) {
+        final String authority = uri.getAuthority() != null ? uri.getAuthority() : String.valueOf(uri.getScheme());
+        Exception lastError = null;
+
+        PathStrategy cached = STRATEGY_CACHE.get(authority);
+        if (cached != null && cached.accepts(uri)) {
+            try {
+                String path = cached.resolve(this, uri);
+                if (path != null) {
+                    return path;
                 }
+            } catch (Exception e) {
+                lastError = e;
+                PluginLog.d(TAG, "Cached strategy " + cached.getName() + " failed for " + authority + ": " + e.getMessage());
+            }
+        }
 
-                if (fullPath != "") {
-                    return fullPath;
-                } else {
-                    return null;
+        for (PathStrategy strategy : STRATEGIES) {
+            if (strategy == cached || !strategy.accepts(uri)) {
+                continue;
+            }
+            try {
+                String path = strategy.resolve(this, uri);
+                if (path != null) {
+                    if (!strategy.copies()) {
+                        STRATEGY_CACHE.put(authority, strategy);
+                    }
+                    return path;
                 }
+            } catch (Exception e) {
+                lastError = e;
+                PluginLog.d(TAG, "Strategy " + strategy.getName() + " failed for " + authority + ": " + e.getMessage());
             }
+        }
+
+        if (lastError != null) {
+            throw new IllegalStateException("Unable to resolve " + uri + ": " + lastError.getMessage(), lastError);
+        }
+        return null;
+    }
 
+    /**
+     * Built-in strategies, most specific first, the internal storage copy last
+     */
+    @SuppressLint("NewApi")
+    private static List<PathStrategy> defaultStrategies() {
+        final boolean isKitKat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        List<PathStrategy> strategies = new ArrayList<>();
 
-            // DownloadsProvider
+        // ExternalStorageProvider
+        strategies.add(new PathStrategy("externalStorage") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return isKitKat && isExternalStorageDocument(uri);
+            }
 
-            if (isDownloadsDocument(uri)) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    final String id;
-                    Cursor cursor = null;
-                    try {
-                        cursor = context.getContentResolver().query(uri, new String[] {
-                                MediaStore.MediaColumns.DISPLAY_NAME
-                        }, null, null, null);
-                        if (cursor != null && cursor.moveToFirst()) {
-                            String fileName = cursor.getString(0);
-                            String path = Environment.getExternalStorageDirectory().toString() + "/Download/" + fileName;
-                            if (!TextUtils.isEmpty(path)) {
-                                return path;
-                            }
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                final String[] split = DocumentsContract.getDocumentId(uri).split(":");
+                String fullPath = getPathFromExtSD(split);
+                return fullPath != null && fileExists(fullPath) ? fullPath : null;
+            }
+        });
+        strategies.add(new PathStrategy("externalStorageCopy", true) {
+            @Override
+            public boolean accepts(Uri uri) {
+                return isKitKat && isExternalStorageDocument(uri);
+            }
+
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                PluginLog.d(TAG, "Copy files as a fallback");
+                return fileUtils.copyFileToInternalStorage(uri, FALLBACK_COPY_FOLDER);
+            }
+        });
+
+        // DownloadsProvider
+        strategies.add(new PathStrategy("downloadsDisplayName") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && isDownloadsDocument(uri);
+            }
+
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) throws IOException {
+                Cursor cursor = null;
+                try {
+                    cursor = ProviderGuard.query(fileUtils.context.getContentResolver(), uri, new String[] {
+                            MediaStore.MediaColumns.DISPLAY_NAME
+                    }, null, null);
+                    if (cursor != null && cursor.moveToFirst()) {
+                        String fileName = cursor.getString(0);
+                        String path = Environment.getExternalStorageDirectory().toString() + "/Download/" + fileName;
+                        if (!TextUtils.isEmpty(path)) {
+                            return path;
                         }
-                    } finally {
-                        if (cursor != null)
-                            cursor.close();
                     }
-                    id = DocumentsContract.getDocumentId(uri);
+                } finally {
+                    if (cursor != null)
+                        cursor.close();
+                }
+                return null;
+            }
+        });
+        strategies.add(new PathStrategy("downloadsRawId") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return isKitKat && isDownloadsDocument(uri);
+            }
 
-                    if (!TextUtils.isEmpty(id)) {
-                        if (id.startsWith("raw:")) {
-                            return id.replaceFirst("raw:", "");
-                        }
-                        String[] contentUriPrefixesToTry = new String[] {
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                final String id = DocumentsContract.getDocumentId(uri);
+                if (!TextUtils.isEmpty(id) && id.startsWith("raw:")) {
+                    return id.replaceFirst("raw:", "");
+                }
+                return null;
+            }
+        });
+        strategies.add(new PathStrategy("downloadsContentId") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return isKitKat && isDownloadsDocument(uri);
+            }
+
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) throws IOException {
+                final String id = DocumentsContract.getDocumentId(uri);
+                if (TextUtils.isEmpty(id) || id.startsWith("raw:")) {
+                    return null;
+                }
+                String[] contentUriPrefixesToTry = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                        ? new String[] {
                                 "content://downloads/public_downloads",
                                 "content://downloads/my_downloads"
-                        };
-
-                        for (String contentUriPrefix: contentUriPrefixesToTry) {
-                            try {
-                                final Uri contentUri = ContentUris.withAppendedId(Uri.parse(contentUriPrefix), Long.valueOf(id));
-
-                                return getDataColumn(context, contentUri, null, null);
-                            } catch (NumberFormatException e) {
-                                //In Android 8 and Android P the id is not a number
-                                return uri.getPath().replaceFirst("^/document/raw:", "").replaceFirst("^raw:", "");
-                            }
                         }
-                    }
-                } else {
-                    final String id = DocumentsContract.getDocumentId(uri);
+                        : new String[] {
+                                "content://downloads/public_downloads"
+                        };
 
-                    if (id.startsWith("raw:")) {
-                        return id.replaceFirst("raw:", "");
-                    }
+                for (String contentUriPrefix: contentUriPrefixesToTry) {
                     try {
-                        contentUri = ContentUris.withAppendedId(
-                                Uri.parse("content://downloads/public_downloads"), Long.valueOf(id));
+                        final Uri contentUri = ContentUris.withAppendedId(Uri.parse(contentUriPrefix), Long.valueOf(id));
+                        String path = fileUtils.getDataColumn(fileUtils.context, contentUri, null, null);
+                        if (path != null) {
+                            return path;
+                        }
                     } catch (NumberFormatException e) {
-                        e.printStackTrace();
+                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                            return null;
+                        }
+                        //In Android 8 and Android P the id is not a number
+                        return uri.getPath().replaceFirst("^/document/raw:", "").replaceFirst("^raw:", "");
                     }
-
-                    if (contentUri != null)
-                        return getDataColumn(context, contentUri, null, null);
                 }
+                return null;
             }
+        });
 
+        // MediaProvider
+        strategies.add(new PathStrategy("mediaDocument") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return isKitKat && isMediaDocument(uri);
+            }
 
-            // MediaProvider
-            if (isMediaDocument(uri)) {
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) throws IOException {
                 final String docId = DocumentsContract.getDocumentId(uri);
                 final String[] split = docId.split(":");
                 final String type = split[0];
 
-                Log.d(TAG, "MEDIA DOCUMENT TYPE: " + type);
+                PluginLog.d(TAG, "MEDIA DOCUMENT TYPE: " + type);
 
                 Uri contentUri = null;
 
@@ -143,71 +314,89 @@ public class FileUtils {
                     contentUri = MediaStore.Files.getContentUri(MediaStore.getVolumeName(uri));
                 }
 
-                selection = "_id=?";
-                selectionArgs = new String[] {
+                final String selection = "_id=?";
+                final String[] selectionArgs = new String[] {
                         split[1]
                 };
 
+                return fileUtils.getDataColumn(fileUtils.context, contentUri, selection, selectionArgs);
+            }
+        });
 
-                return getDataColumn(context, contentUri, selection, selectionArgs);
+        strategies.add(new PathStrategy("googleDrive", true) {
+            @Override
+            public boolean accepts(Uri uri) {
+                return isGoogleDriveUri(uri);
             }
 
-            if (isGoogleDriveUri(uri)) {
-                return getDriveFilePath(uri);
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                return fileUtils.getDriveFilePath(uri);
             }
+        });
 
-            if (isWhatsAppFile(uri)) {
-                return getFilePathForWhatsApp(uri);
+        strategies.add(new PathStrategy("whatsApp", true) {
+            @Override
+            public boolean accepts(Uri uri) {
+                return isWhatsAppFile(uri);
             }
 
-            if ("content".equalsIgnoreCase(uri.getScheme())) {
-                if (isGooglePhotosUri(uri)) {
-                    return uri.getLastPathSegment();
-                }
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                return fileUtils.getFilePathForWhatsApp(uri);
+            }
+        });
 
-                if (isGoogleDriveUri(uri)) {
-                    return getDriveFilePath(uri);
-                }
+        strategies.add(new PathStrategy("googlePhotos") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return "content".equalsIgnoreCase(uri.getScheme()) && isGooglePhotosUri(uri);
+            }
 
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                    // return getFilePathFromURI(context,uri);
-                    return copyFileToInternalStorage(uri, FALLBACK_COPY_FOLDER);
-                    // return getRealPathFromURI(context,uri);
-                } else {
-                    return getDataColumn(context, uri, null, null);
-                }
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                return uri.getLastPathSegment();
+            }
+        });
 
+        // Any other content URI: the _data column is gone on Android Q+, so copy
+        strategies.add(new PathStrategy("contentData") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return "content".equalsIgnoreCase(uri.getScheme()) && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q;
             }
 
-            if ("file".equalsIgnoreCase(uri.getScheme())) {
-                return uri.getPath();
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) throws IOException {
+                return fileUtils.getDataColumn(fileUtils.context, uri, null, null);
             }
-        } else {
-            if (isWhatsAppFile(uri)) {
-                return getFilePathForWhatsApp(uri);
+        });
+
+        strategies.add(new PathStrategy("file") {
+            @Override
+            public boolean accepts(Uri uri) {
+                return "file".equalsIgnoreCase(uri.getScheme());
             }
 
-            if ("content".equalsIgnoreCase(uri.getScheme())) {
-                String[] projection = {
-                        MediaStore.Images.Media.DATA
-                };
-                Cursor cursor = null;
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                return uri.getPath();
+            }
+        });
 
-                try {
-                    cursor = context.getContentResolver()
-                            .query(uri, projection, selection, selectionArgs, null);
-                    int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
+        strategies.add(new PathStrategy("copy", true) {
+            @Override
+            public boolean accepts(Uri uri) {
+                return true;
+            }
 
-                    if (cursor.moveToFirst()) {
-                        return cursor.getString(column_index);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            @Override
+            public String resolve(FileUtils fileUtils, Uri uri) {
+                return fileUtils.copyFileToInternalStorage(uri, FALLBACK_COPY_FOLDER);
             }
-        }
+        });
 
-        return copyFileToInternalStorage(uri, FALLBACK_COPY_FOLDER);
+        return strategies;
     }
 
     private static boolean fileExists(String filePath) {
@@ -222,8 +411,8 @@ public class FileUtils {
         String fullPath = "";
 
 
-        Log.d(TAG, "MEDIA EXTSD TYPE: " + type);
-        Log.d(TAG, "Relative path: " + relativePath);
+        PluginLog.d(TAG, "MEDIA EXTSD TYPE: " + type);
+        PluginLog.d(TAG, "Relative path: " + relativePath);
         // on my Sony devices (4.4.4 & 5.1.1), `type` is a dynamic string
         // something like "71F8-2C0A", some kind of unique id per storage
         // don't know any API that can get the root path of that storage based on its id.
@@ -262,73 +451,89 @@ public class FileUtils {
     }
 
     private String getDriveFilePath(Uri uri) {
-        Uri returnUri = uri;
-        Cursor returnCursor = context.getContentResolver().query(returnUri, null, null, null, null);
-        /*
-         * Get the column indexes of the data in the Cursor,
-         *     * move to the first row in the Cursor, get the data,
-         *     * and display it.
-         * */
-        int nameIndex = returnCursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-        int sizeIndex = returnCursor.getColumnIndex(OpenableColumns.SIZE);
-        returnCursor.moveToFirst();
-        String name = (returnCursor.getString(nameIndex));
-        String size = (Long.toString(returnCursor.getLong(sizeIndex)));
-        File file = new File(context.getCacheDir(), name);
+        SourceInfo source = querySourceInfo(uri);
+        copiedSource = source;
+        String name = source.name;
+        File dir = new File(context.getCacheDir(), DRIVE_COPY_FOLDER);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File file = new File(dir, name);
         try {
-            InputStream inputStream = context.getContentResolver().openInputStream(uri);
-            FileOutputStream outputStream = new FileOutputStream(file);
-            int read = 0;
-            int maxBufferSize = 1 * 1024 * 1024;
-            int bytesAvailable = inputStream.available();
-
-            //int bufferSize = 1024;
-            int bufferSize = Math.min(bytesAvailable, maxBufferSize);
-
-            final byte[] buffers = new byte[bufferSize];
-            while ((read = inputStream.read(buffers)) != -1) {
-                outputStream.write(buffers, 0, read);
-            }
-            Log.e(TAG, "Size " + file.length());
-            inputStream.close();
-            outputStream.close();
-            Log.e(TAG, "Path " + file.getPath());
-            Log.e(TAG, "Size " + file.length());
+            if (digest != null) {
+                digest.reset();
+            }
+            // Copies are named after the source, so a partial copy of another
+            // file with the same name must not be resumed
+            long size = CopyEngine.copy(context.getContentResolver(), uri, file, digest, null,
+                    CopyCache.key(uri, source.size, source.lastModified));
+            if (digest != null) {
+                digest.finish();
+            }
+            PluginLog.d(TAG, "Path " + file.getPath());
+            PluginLog.d(TAG, "Size " + size);
         } catch (Exception e) {
-            Log.e(TAG, e.getMessage());
+            PluginLog.e(TAG, e.getMessage());
+            return null;
         }
 
         return file.getPath();
     }
 
+    /**
+     * Copy a content URI into the fallback folder, reporting progress
+     *
+     * @param uri
+     * @param control progress and cancellation, may be null
+     * @return path of the copy
+     * @throws CopyEngine.CancelledException if the copy was cancelled
+     * @throws IOException if the copy failed
+     */
+    public String importFile(Uri uri, CopyEngine.Control control) throws IOException {
+        return copyFileToInternalStorage(uri, FALLBACK_COPY_FOLDER, control);
+    }
+
     /***
      * Used for Android Q+
      * @param uri
      * @param newDirName if you want to create a directory, you can set this variable
-     * @return
+     * @return path of the copy, null if the copy failed
      */
     private String copyFileToInternalStorage(Uri uri, String newDirName) {
-        Uri returnUri = uri;
-
-        Cursor returnCursor = context.getContentResolver().query(returnUri, new String[] {
-                OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE
-        }, null, null, null);
-
+        try {
+            return copyFileToInternalStorage(uri, newDirName, null);
+        } catch (Exception e) {
+            PluginLog.e(TAG, e.getMessage());
+            return null;
+        }
+    }
 
-        /*
-         * Get the column indexes of the data in the Cursor,
-         *     * move to the first row in the Cursor, get the data,
-         *     * and display it.
-         * */
-        int nameIndex = returnCursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-        int sizeIndex = returnCursor.getColumnIndex(OpenableColumns.SIZE);
-        returnCursor.moveToFirst();
-        String name = (returnCursor.getString(nameIndex));
-        String size = (Long.toString(returnCursor.getLong(sizeIndex)));
+    private String copyFileToInternalStorage(Uri uri, String newDirName, CopyEngine.Control control) throws IOException {
+        SourceInfo source = querySourceInfo(uri);
+        copiedSource = source;
+        String name = source.name;
+
+        // Copies into a named folder go through the copy cache, so the same
+        // source is only copied once
+        CopyCache cache = null;
+        String cacheKey = null;
+        if (!newDirName.equals("") && source.size >= 0) {
+            cache = CopyCache.getInstance(context);
+            cacheKey = CopyCache.key(uri, source.size, source.lastModified);
+            String cached = cache.get(cacheKey);
+            if (cached != null) {
+                PluginLog.d(TAG, "Reusing copy " + cached);
+                return cached;
+            }
+        }
 
         File output;
         if (!newDirName.equals("")) {
-            String random_collision_avoidance = UUID.randomUUID().toString();
+            // A known source always copies into the same folder, so an
+            // interrupted copy can be resumed from its .part file
+            String random_collision_avoidance = cacheKey != null
+                    ? UUID.nameUUIDFromBytes(cacheKey.getBytes()).toString()
+                    : UUID.randomUUID().toString();
 
             File dir = new File(context.getFilesDir() + File.separator + newDirName + File.separator + random_collision_avoidance);
             if (!dir.exists()) {
@@ -339,31 +544,139 @@ public class FileUtils {
             output = new File(context.getFilesDir() + File.separator + name);
         }
 
+        // Duplicate URIs in one batch, or an import and a resolve of the same
+        // URI, share the output file. The first one copies, the others reuse
+        // its copy once it's done.
+        CopyEngine.TargetLock targetLock = CopyEngine.lock(output);
         try {
-            InputStream inputStream = context.getContentResolver().openInputStream(uri);
-            FileOutputStream outputStream = new FileOutputStream(output);
-            int read = 0;
-            int bufferSize = 1024;
-            final byte[] buffers = new byte[bufferSize];
+            if (cacheKey != null) {
+                // The miss was counted above, only look again
+                String cached = cache.peek(cacheKey);
+                if (cached != null) {
+                    PluginLog.d(TAG, "Reusing copy " + cached);
+                    return cached;
+                }
+            }
+            return copy(uri, source, output, cache, cacheKey, control);
+        } finally {
+            targetLock.release();
+        }
+    }
 
-            while ((read = inputStream.read(buffers)) != -1) {
-                outputStream.write(buffers, 0, read);
+    private String copy(Uri uri, SourceInfo source, File output, CopyCache cache, String cacheKey,
+                        CopyEngine.Control control) throws IOException {
+        ContentDigest digest = this.digest;
+        boolean verify = cache != null && cache.isVerifyHash();
+        if (verify) {
+            if (digest == null) {
+                digest = new ContentDigest();
+            }
+            try {
+                digest.require(ContentDigest.SHA256);
+            } catch (IllegalArgumentException e) {
+                PluginLog.w(TAG, "SHA-256 not available, copy will not be verified");
+                verify = false;
             }
+        }
+        if (digest != null) {
+            // An earlier strategy may have fed part of a failed copy
+            digest.reset();
+        }
 
-            inputStream.close();
-            outputStream.close();
-        } catch (Exception e) {
-            Log.e(TAG, e.getMessage());
+        CopyEngine.copy(context.getContentResolver(), uri, output, digest, control,
+                CopyCache.key(uri, source.size, source.lastModified));
+        if (digest != null) {
+            digest.finish();
+        }
+
+        if (cacheKey != null) {
+            cache.put(cacheKey, output, verify ? digest.getSha256() : null);
         }
 
         return output.getPath();
     }
 
+    /**
+     * Name, size and last-modified time of a content URI
+     */
+    static final class SourceInfo {
+        String name;
+        long size = -1;
+        long lastModified = 0;
+    }
+
+    private static final String[] PROJECTION_DOCUMENT = new String[] {
+            OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+    private static final String[] PROJECTION_MEDIA = new String[] {
+            OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE, MediaStore.MediaColumns.DATE_MODIFIED
+    };
+    private static final String[] PROJECTION_OPENABLE = new String[] {
+            OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE
+    };
+
+    /**
+     * Query the display name, size and last-modified time of a content URI.
+     * Providers reject unknown columns in different ways, so the modified
+     * column is tried under its DocumentsProvider name, then its MediaStore
+     * name (MediaStore first for the "media" authority), then left out.
+     */
+    SourceInfo querySourceInfo(Uri uri) {
+        long started = Metrics.start("query");
+        SourceInfo info = null;
+        try {
+            info = queryProjections(uri);
+            return info;
+        } finally {
+            Metrics.record("query", uri.getAuthority(), started, 0, info != null && (info.name != null || info.size >= 0));
+        }
+    }
+
+    private SourceInfo queryProjections(Uri uri) {
+        final String[][] projections = "media".equals(uri.getAuthority())
+                ? new String[][] { PROJECTION_MEDIA, PROJECTION_DOCUMENT, PROJECTION_OPENABLE }
+                : new String[][] { PROJECTION_DOCUMENT, PROJECTION_MEDIA, PROJECTION_OPENABLE };
+
+        SourceInfo info = new SourceInfo();
+        for (String[] projection : projections) {
+            Cursor cursor = null;
+            try {
+                cursor = ProviderGuard.query(context.getContentResolver(), uri, projection, null, null);
+                if (cursor == null || !cursor.moveToFirst()) {
+                    continue;
+                }
+                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                int modifiedIndex = projection.length > 2 ? cursor.getColumnIndex(projection[2]) : -1;
+                if (nameIndex != -1) {
+                    info.name = cursor.getString(nameIndex);
+                }
+                if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+                    info.size = cursor.getLong(sizeIndex);
+                }
+                if (modifiedIndex != -1 && !cursor.isNull(modifiedIndex)) {
+                    info.lastModified = cursor.getLong(modifiedIndex);
+                }
+                return info;
+            } catch (IOException e) {
+                // Timed out or breaker open, other projections won't do better
+                PluginLog.d(TAG, "Query failed for " + uri.getAuthority() + ": " + e.getMessage());
+                return info;
+            } catch (Exception e) {
+                PluginLog.d(TAG, "Projection not supported by " + uri.getAuthority() + ": " + e.getMessage());
+            } finally {
+                if (cursor != null)
+                    cursor.close();
+            }
+        }
+        return info;
+    }
+
     private String getFilePathForWhatsApp(Uri uri) {
-        return copyFileToInternalStorage(uri, "whatsapp");
+        return copyFileToInternalStorage(uri, WHATSAPP_COPY_FOLDER);
     }
 
-    private String getDataColumn(Context context, Uri uri, String selection, String[] selectionArgs) {
+    private String getDataColumn(Context context, Uri uri, String selection, String[] selectionArgs) throws IOException {
         Cursor cursor = null;
         final String column = "_data";
         final String[] projection = {
@@ -371,8 +684,8 @@ public class FileUtils {
         };
 
         try {
-            cursor = context.getContentResolver().query(uri, projection,
-                    selection, selectionArgs, null);
+            cursor = ProviderGuard.query(context.getContentResolver(), uri, projection,
+                    selection, selectionArgs);
 
             if (cursor != null && cursor.moveToFirst()) {
                 final int index = cursor.getColumnIndexOrThrow(column);
@@ -394,19 +707,19 @@ public class FileUtils {
         return "com.android.providers.downloads.documents".equals(uri.getAuthority());
     }
 
-    private boolean isMediaDocument(Uri uri) {
+    private static boolean isMediaDocument(Uri uri) {
         return "com.android.providers.media.documents".equals(uri.getAuthority());
     }
 
-    private boolean isGooglePhotosUri(Uri uri) {
+    private static boolean isGooglePhotosUri(Uri uri) {
         return "com.google.android.apps.photos.content".equals(uri.getAuthority());
     }
 
-    public boolean isWhatsAppFile(Uri uri) {
+    public static boolean isWhatsAppFile(Uri uri) {
         return "com.whatsapp.provider.media".equals(uri.getAuthority());
     }
 
-    private boolean isGoogleDriveUri(Uri uri) {
+    private static boolean isGoogleDriveUri(Uri uri) {
         return "com.google.android.apps.docs.storage".equals(uri.getAuthority()) || "com.google.android.apps.docs.storage.legacy".equals(uri.getAuthority());
     }
 }
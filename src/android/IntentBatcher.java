@@ -0,0 +1,124 @@
+package com.betasoft.cordova.plugin.intent;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects intent payloads that arrive within a short window and sends
+ * them to the onNewIntent handler as one JSON array (or one CBOR array in
+ * binary mode), so a burst of intents costs one bridge message instead of
+ * one per intent.
+ *
+ * A batch is sent when its window ends, when it reaches maxBatch intents,
+ * or when {@link #flush()} is called (e.g. when the app is paused).
+ *
+ * All methods must be called on the delivery executor thread, the same
+ * thread that runs the window timer.
+ */
+public class IntentBatcher {
+
+    private final ScheduledExecutorService executor;
+
+    private CallbackContext callbackContext;
+    private long windowMs = 0;
+    private int maxBatch = 1;
+
+    private List<Object> batch = new ArrayList<>();
+    private ScheduledFuture<?> pendingFlush;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            pendingFlush = null;
+            flush();
+        }
+    };
+
+    /**
+     * @param executor single-threaded delivery executor
+     */
+    public IntentBatcher(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Enable batching for a handler, a window of 0 disables it. Intents
+     * batched for the previous handler are sent first.
+     */
+    public void configure(CallbackContext callbackContext, long windowMs, int maxBatch) {
+        flush();
+        this.callbackContext = callbackContext;
+        this.windowMs = Math.max(0, windowMs);
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    public boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    /**
+     * Add an intent payload to the current batch
+     *
+     * @param payload serialized JSON object or CBOR map
+     */
+    public void add(Object payload) {
+        if (!batch.isEmpty() && (batch.get(0) instanceof byte[]) != (payload instanceof byte[])) {
+            // The handler switched encodings, JSON and CBOR can't share an array
+            flush();
+        }
+        batch.add(payload);
+        if (batch.size() >= maxBatch) {
+            flush();
+        } else if (pendingFlush == null) {
+            pendingFlush = executor.schedule(flushTask, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send the current batch now, if there is one
+     */
+    public void flush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (batch.isEmpty() || callbackContext == null) {
+            return;
+        }
+        PluginResult result = batch.get(0) instanceof byte[] ? cborArray() : jsonArray();
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        batch = new ArrayList<>();
+    }
+
+    private PluginResult jsonArray() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(batch.get(i));
+        }
+        return new RawJsonResult(PluginResult.Status.OK, json.append(']').toString());
+    }
+
+    /**
+     * The payloads are complete CBOR items, so the array is just the
+     * payloads between an array head and a break
+     */
+    private PluginResult cborArray() {
+        CborWriter writer = new CborWriter();
+        writer.beginArray();
+        for (Object payload : batch) {
+            writer.raw((byte[]) payload);
+        }
+        writer.endArray();
+        return new PluginResult(PluginResult.Status.OK, writer.toByteArray());
+    }
+}
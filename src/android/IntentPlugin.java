@@ -1,20 +1,38 @@
 package com.betasoft.cordova.plugin.intent;
 
 import java.io.File;
-import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.content.ClipData;
+import android.content.ContentResolver;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
-import android.provider.OpenableColumns;
 import android.util.Log;
 
 import org.apache.cordova.CallbackContext;
@@ -27,225 +45,1371 @@ public class IntentPlugin extends CordovaPlugin {
     private final String pluginName = "IntentPlugin";
     private CallbackContext onNewIntentCallbackContext = null;
 
-    private Intent bootIntent = null;
+    /**
+     * Intents received while no onNewIntent handler is registered, including
+     * the launch intent
+     */
+    private IntentQueue intentQueue;
+
+    private ActionScheduler scheduler;
+
+    private BatchResolver batchResolver;
+    private Thumbnailer thumbnailer;
+    private FdLeaseRegistry fdLeases;
+    private TreeWalker treeWalker;
+
+    private StreamRegistry streamRegistry;
+
+    private StorageJanitor storageJanitor;
+
+    /**
+     * Bounded pool for clip item metadata queries
+     */
+    private ExecutorService metadataPool;
+
+    /**
+     * Serializes onNewIntent deliveries off the UI thread, in arrival order
+     */
+    private ScheduledExecutorService deliveryExecutor;
+
+    /**
+     * Batches onNewIntent payloads, only touched on the delivery thread
+     */
+    private IntentBatcher intentBatcher;
+
+    /**
+     * Send onNewIntent payloads without file metadata, followed by a
+     * metadata event once the provider queries are done
+     */
+    private volatile boolean deferMetadata = false;
+
+    /**
+     * Send onNewIntent payloads with a clip items handle and count instead of
+     * the clip items themselves, see getClipItems
+     */
+    private volatile boolean pagedClipItems = false;
+
+    /**
+     * Fields and extras limit of onNewIntent payloads
+     */
+    private volatile IntentSerializer intentSerializer = new IntentSerializer();
+
+    /**
+     * Cached getCordovaIntent payloads of the activity intent
+     */
+    private final IntentSnapshot intentSnapshot = new IntentSnapshot();
+
+    private static final String DEFAULT_SERIALIZER_KEY = new IntentSerializer().getCacheKey();
+
+    /**
+     * SEND / SEND_MULTIPLE launch intent and its payload, serialized in the
+     * background at startup for the first handler delivery
+     */
+    private volatile Intent bootIntent;
+
+    private final AtomicReference<FutureTask<String>> bootPayload = new AtomicReference<>();
+
+    private final StartupTrace startupTrace = new StartupTrace();
+
+    private ClipItemStore clipItemStore;
+
+    private final AtomicInteger intentIds = new AtomicInteger();
+
+    /**
+     * Running importFile copies by import id, see cancelImport
+     */
+    private final ConcurrentHashMap<String, CopyEngine.Control> imports = new ConcurrentHashMap<>();
+
+    private final AtomicInteger importIds = new AtomicInteger();
+
+    /**
+     * Handler for a single plugin action
+     */
+    interface ActionHandler {
+        boolean handle(JSONArray data, CallbackContext context) throws Exception;
+    }
+
+    /**
+     * Action table entry. Blocking actions query providers or copy files and
+     * run on the I/O pool, everything else stays on the calling thread. Bulk
+     * actions may copy or read whole files and run on the bulk pool.
+     */
+    private static final class ActionEntry {
+        final ActionHandler handler;
+        final boolean blocking;
+        final boolean bulk;
+
+        ActionEntry(ActionHandler handler, boolean blocking) {
+            this(handler, blocking, false);
+        }
+
+        ActionEntry(ActionHandler handler, boolean blocking, boolean bulk) {
+            this.handler = handler;
+            this.blocking = blocking;
+            this.bulk = bulk;
+        }
+    }
+
+    private final Map<String, ActionEntry> actions = new HashMap<>();
+
+    /**
+     * Only creates objects and records the launch intent. Anything that
+     * touches the disk or serializes the intent runs in startInBackground.
+     */
+    @Override
+    protected void pluginInitialize() {
+        final long started = startupTrace.now();
+        StartupTrace.beginSection("IntentPlugin.init");
+        PluginLog.setLevel(preferences.getString("IntentPluginLogLevel", "warn"));
+        Metrics.setTracing(preferences.getBoolean("IntentPluginTraceSections", false));
+        registerActions();
+        this.scheduler = new ActionScheduler(
+                intPreference("IntentPluginIoThreads", 2),
+                intPreference("IntentPluginBulkThreads", 2),
+                intPreference("IntentPluginMaxPendingPerAction", 4),
+                intPreference("IntentPluginIoQueueSize", 32),
+                preferences.getString("IntentPluginQueueOverflow", ActionScheduler.POLICY_REJECT));
+        CopyEngine.setFsyncPolicy(preferences.getString("IntentPluginCopyFsync", CopyEngine.FSYNC_NEVER));
+        ProviderGuard.configure(
+                longPreference("IntentPluginProviderQueryTimeoutMs", ProviderGuard.DEFAULT_QUERY_TIMEOUT_MS),
+                longPreference("IntentPluginProviderOpenTimeoutMs", ProviderGuard.DEFAULT_OPEN_TIMEOUT_MS),
+                longPreference("IntentPluginProviderDownloadOpenTimeoutMs", ProviderGuard.DEFAULT_DOWNLOAD_OPEN_TIMEOUT_MS),
+                intPreference("IntentPluginProviderConcurrency", ProviderGuard.DEFAULT_MAX_CONCURRENCY),
+                longPreference("IntentPluginProviderSlowMs", ProviderGuard.DEFAULT_SLOW_MS),
+                intPreference("IntentPluginProviderBreakerThreshold", ProviderGuard.DEFAULT_BREAKER_THRESHOLD),
+                longPreference("IntentPluginProviderBreakerCooldownMs", ProviderGuard.DEFAULT_BREAKER_COOLDOWN_MS));
+        this.batchResolver = new BatchResolver(this.cordova.getContext(),
+                intPreference("IntentPluginResolveThreads", 4));
+        this.thumbnailer = new Thumbnailer(this.cordova.getContext(),
+                intPreference("IntentPluginThumbnailThreads", 2),
+                intPreference("IntentPluginThumbnailMemoryBytes", Thumbnailer.DEFAULT_MEMORY_BYTES),
+                longPreference("IntentPluginThumbnailDiskBytes", Thumbnailer.DEFAULT_DISK_BYTES));
+        this.fdLeases = new FdLeaseRegistry(this.cordova.getContext().getContentResolver(),
+                intPreference("IntentPluginMaxLeases", FdLeaseRegistry.DEFAULT_MAX_LEASES));
+        this.treeWalker = new TreeWalker(this.cordova.getContext(),
+                intPreference("IntentPluginWalkThreads", 2));
+        this.streamRegistry = new StreamRegistry(this.cordova.getContext().getContentResolver(),
+                intPreference("IntentPluginMaxOpenStreams", 8),
+                intPreference("IntentPluginStreamReadAhead", 2),
+                longPreference("IntentPluginStreamIdleTimeoutMs", StreamRegistry.DEFAULT_IDLE_TIMEOUT_MS));
+        this.storageJanitor = new StorageJanitor(this.cordova.getContext(),
+                longPreference("IntentPluginStorageQuotaBytes", StorageJanitor.DEFAULT_QUOTA_BYTES),
+                intPreference("IntentPluginStorageMaxAgeHours", StorageJanitor.DEFAULT_MAX_AGE_HOURS),
+                intPreference("IntentPluginStorageSweepMinutes", StorageJanitor.DEFAULT_SWEEP_MINUTES));
+        int metadataThreads = Math.max(1, intPreference("IntentPluginMetadataThreads", 4));
+        ThreadPoolExecutor metadataExecutor = new ThreadPoolExecutor(metadataThreads, metadataThreads,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ActionScheduler.NamedThreadFactory("IntentPlugin-meta"));
+        metadataExecutor.allowCoreThreadTimeOut(true);
+        this.metadataPool = metadataExecutor;
+        this.clipItemStore = new ClipItemStore(this::getFileMetaFromUri, metadataPool);
+        this.deliveryExecutor = Executors.newSingleThreadScheduledExecutor(new ActionScheduler.NamedThreadFactory("IntentPlugin-deliver"));
+        this.intentBatcher = new IntentBatcher(deliveryExecutor);
+        this.intentQueue = new IntentQueue(
+                intPreference("IntentPluginIntentQueueSize", 16),
+                preferences.getString("IntentPluginIntentQueueOverflow", IntentQueue.POLICY_DROP_OLDEST));
+        final Intent cordovaIntent = this.cordova.getActivity().getIntent();
+        final String intentAction = cordovaIntent.getAction();
+        if(Intent.ACTION_SEND.equals(intentAction) || Intent.ACTION_SEND_MULTIPLE.equals(intentAction)){
+            synchronized (intentQueue) {
+                intentQueue.offer(cordovaIntent);
+            }
+            this.bootIntent = cordovaIntent;
+            bootPayload.set(new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    long payloadStarted = startupTrace.now();
+                    StartupTrace.beginSection("IntentPlugin.bootPayload");
+                    try {
+                        return (String) getIntentPayload(cordovaIntent, new IntentSerializer(), true, false, null);
+                    } finally {
+                        StartupTrace.endSection();
+                        startupTrace.recordBootPayload(payloadStarted);
+                    }
+                }
+            }));
+        }
+        Runnable startup = new Runnable() {
+            @Override
+            public void run() {
+                startInBackground();
+            }
+        };
+        if (!scheduler.submitInternal("startup", startup)) {
+            new ActionScheduler.NamedThreadFactory("IntentPlugin-startup").newThread(startup).start();
+        }
+        StartupTrace.endSection();
+        startupTrace.recordInit(started);
+    }
+
+    /**
+     * Read an integer preference, falling back to the default if the value
+     * is malformed so one typo in config.xml doesn't disable the plugin
+     */
+    private int intPreference(String name, int defaultValue) {
+        try {
+            return preferences.getInteger(name, defaultValue);
+        } catch (NumberFormatException e) {
+            PluginLog.w(pluginName, "Ignoring malformed preference " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @see #intPreference(String, int)
+     */
+    private long longPreference(String name, long defaultValue) {
+        String value = preferences.getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            PluginLog.w(pluginName, "Ignoring malformed preference " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Load the caches, start the storage janitor and serialize the launch
+     * intent, so its payload is ready when setNewIntentHandler registers
+     */
+    private void startInBackground() {
+        long started = startupTrace.now();
+        StartupTrace.beginSection("IntentPlugin.backgroundInit");
+        CopyCache copyCache = CopyCache.getInstance(this.cordova.getContext());
+        copyCache.setMaxBytes(longPreference("IntentPluginCopyCacheMaxBytes", CopyCache.DEFAULT_MAX_BYTES));
+        copyCache.setVerifyHash(preferences.getBoolean("IntentPluginCopyCacheVerifyHash", false));
+        ResolvedPathCache.getInstance(this.cordova.getContext()).configure(
+                intPreference("IntentPluginPathCacheSize", ResolvedPathCache.DEFAULT_MAX_ENTRIES),
+                preferences.getBoolean("IntentPluginPathCachePersist", false));
+        storageJanitor.start();
+        StartupTrace.endSection();
+        startupTrace.recordBackgroundInit(started);
+
+        FutureTask<String> payload = bootPayload.get();
+        if (payload != null) {
+            payload.run();
+        }
+        if (PluginLog.isLoggable(Log.INFO)) {
+            try {
+                PluginLog.i(pluginName, "Startup trace " + startupTrace.toJson());
+            } catch (JSONException e) {
+                PluginLog.d(pluginName, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Take the payload serialized at startup, if it is for this intent and
+     * the handler wants the default payload. Serializes it right here if the
+     * startup task has not got to it yet.
+     *
+     * @return the payload, or null if it has to be built
+     */
+    private String takeBootPayload(Intent intent, IntentSerializer serializer) {
+        if (intent != bootIntent || !DEFAULT_SERIALIZER_KEY.equals(serializer.getCacheKey())) {
+            return null;
+        }
+        FutureTask<String> payload = bootPayload.getAndSet(null);
+        if (payload == null) {
+            return null;
+        }
+        payload.run();
+        try {
+            return payload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            PluginLog.d(pluginName, "Boot payload failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Build the action table once, execute() only does a map lookup
+     */
+    private void registerActions() {
+        actions.put("getCordovaIntent", new ActionEntry(this::getCordovaIntent, true));
+        actions.put("getCordovaIntentVersion", new ActionEntry(this::getCordovaIntentVersion, false));
+        actions.put("setNewIntentHandler", new ActionEntry(this::setNewIntentHandler, false));
+        actions.put("getRealPathFromContentUrl", new ActionEntry(this::getRealPathFromContentUrl, true, true));
+        actions.put("releaseLease", new ActionEntry(this::releaseLease, false));
+        actions.put("getLeaseStats", new ActionEntry(this::getLeaseStats, false));
+        actions.put("resolvePaths", new ActionEntry(this::resolvePaths, false));
+        actions.put("getThumbnails", new ActionEntry(this::getThumbnails, false));
+        actions.put("getThumbnailStats", new ActionEntry(this::getThumbnailStats, false));
+        actions.put("getCopyCacheStats", new ActionEntry(this::getCopyCacheStats, false));
+        actions.put("openStream", new ActionEntry(this::openStream, true));
+        actions.put("readChunk", new ActionEntry(this::readChunk, true));
+        actions.put("closeStream", new ActionEntry(this::closeStream, false));
+        actions.put("getClipItems", new ActionEntry(this::getClipItems, true));
+        actions.put("getIntentQueueStats", new ActionEntry(this::getIntentQueueStats, false));
+        actions.put("invalidate", new ActionEntry(this::invalidate, true));
+        actions.put("getPathCacheStats", new ActionEntry(this::getPathCacheStats, false));
+        actions.put("importFile", new ActionEntry(this::importFile, true, true));
+        actions.put("cancelImport", new ActionEntry(this::cancelImport, false));
+        actions.put("hashContent", new ActionEntry(this::hashContent, true, true));
+        actions.put("walkTree", new ActionEntry(this::walkTree, false));
+        actions.put("cancelWalk", new ActionEntry(this::cancelWalk, false));
+        actions.put("getStorageStats", new ActionEntry(this::getStorageStats, false));
+        actions.put("getStartupTrace", new ActionEntry(this::getStartupTrace, false));
+        actions.put("getMetrics", new ActionEntry(this::getMetrics, false));
+        actions.put("getProviderStats", new ActionEntry(this::getProviderStats, false));
+        actions.put("resetMetrics", new ActionEntry(this::resetMetrics, false));
+    }
+
+    /**
+     * Send an intent to the onNewIntent handler. In paged mode only a clip
+     * items handle and count are sent. In deferred metadata mode the
+     * intent is sent right away without file metadata, tagged with an
+     * intentId, and a { event: "metadata", intentId, clipItems } follow-up is
+     * sent once the provider queries are done.
+     *
+     * @param intent
+     * @param callbackContext
+     */
+    private void deliverIntent(final Intent intent, final CallbackContext callbackContext) {
+        final IntentSerializer serializer = this.intentSerializer;
+        try {
+            if (pagedClipItems) {
+                sendIntent(callbackContext, getIntentPayload(intent, serializer, false, true, null));
+                return;
+            }
+            if (!deferMetadata) {
+                Object payload = takeBootPayload(intent, serializer);
+                if (payload == null) {
+                    payload = getIntentPayload(intent, serializer, true, false, null);
+                }
+                sendIntent(callbackContext, payload);
+                return;
+            }
+        } catch (IOException e) {
+            PluginLog.d(pluginName, pluginName + " Error thrown during intent > JSON conversion");
+            PluginLog.d(pluginName, e.getMessage());
+            return;
+        }
+
+        final int intentId = intentIds.incrementAndGet();
+        final ClipData clipData = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? intent.getClipData() : null;
+        final boolean metadataPending = clipData != null && serializer.wantsClipItemMeta();
+        try {
+            JSONObject trailer = new JSONObject();
+            trailer.put("intentId", intentId);
+            trailer.put("metadataPending", metadataPending);
+            sendIntent(callbackContext, getIntentPayload(intent, serializer, false, false, trailer));
+        } catch (JSONException | IOException e) {
+            PluginLog.d(pluginName, pluginName + " Error thrown during intent > JSON conversion");
+            PluginLog.d(pluginName, e.getMessage());
+            return;
+        }
+
+        if (!metadataPending) {
+            return;
+        }
+        boolean accepted = scheduler.submitInternal("loadClipItemMetadata", new Runnable() {
+            @Override
+            public void run() {
+                JSONObject[] metas = getFileMetaFromUris(clipData);
+                JSONArray items = new JSONArray();
+                JSONObject event = new JSONObject();
+                try {
+                    for (int i = 0; i < metas.length; i++) {
+                        JSONObject item = new JSONObject();
+                        item.put("index", i);
+                        item.put("uri", clipData.getItemAt(i).getUri());
+                        mergeFileMeta(item, metas[i]);
+                        items.put(item);
+                    }
+                    event.put("event", "metadata");
+                    event.put("intentId", intentId);
+                    event.put("clipItems", items);
+                } catch (JSONException e) {
+                    PluginLog.d(pluginName, pluginName + " Error thrown during metadata > JSON conversion");
+                    PluginLog.d(pluginName, e.getMessage());
+                }
+                postMetadataEvent(callbackContext, serializer, event);
+            }
+        });
+        if (!accepted) {
+            // The page was told metadata is pending, don't leave it waiting
+            JSONObject event = new JSONObject();
+            try {
+                event.put("event", "metadata");
+                event.put("intentId", intentId);
+                event.put("error", "Too many pending calls, metadata was not loaded");
+            } catch (JSONException e) {
+                PluginLog.d(pluginName, e.getMessage());
+            }
+            sendMetadataEvent(callbackContext, serializer, event);
+        }
+    }
+
+    /**
+     * Hand a metadata event from the I/O pool to the delivery thread, where
+     * its intent went through the batcher
+     */
+    private void postMetadataEvent(final CallbackContext callbackContext, final IntentSerializer serializer,
+                                   final JSONObject event) {
+        try {
+            deliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendMetadataEvent(callbackContext, serializer, event);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            PluginLog.d(pluginName, "Plugin destroyed, metadata event dropped");
+        }
+    }
+
+    /**
+     * Send a metadata event in the handler's encoding. It goes through the
+     * batcher like intents, so in batch mode it arrives in an array and
+     * never ahead of its intent. Must be called on the delivery thread.
+     */
+    private void sendMetadataEvent(CallbackContext callbackContext, IntentSerializer serializer, JSONObject event) {
+        Object payload = event.toString();
+        if (serializer.isBinary()) {
+            try {
+                CborWriter writer = new CborWriter();
+                writer.json(event);
+                payload = writer.toByteArray();
+            } catch (IOException e) {
+                PluginLog.d(pluginName, e.getMessage());
+            }
+        }
+        sendIntent(callbackContext, payload);
+    }
+
+    /**
+     * Send an intent payload or event, or add it to the current batch in
+     * batch mode. Must be called on the delivery thread.
+     *
+     * @param data JSON string or CBOR bytes
+     */
+    private void sendIntent(CallbackContext callbackContext, Object data) {
+        if (intentBatcher.isEnabled()) {
+            intentBatcher.add(data);
+        } else {
+            PluginResult result = payloadResult(data);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+    }
+
+    /**
+     * @param payload JSON string or CBOR bytes
+     * @return an object result for JSON, an ArrayBuffer result for CBOR
+     */
+    static PluginResult payloadResult(Object payload) {
+        if (payload instanceof byte[]) {
+            return new PluginResult(PluginResult.Status.OK, (byte[]) payload);
+        }
+        return new RawJsonResult(PluginResult.Status.OK, (String) payload);
+    }
+
+    private void sendKeepCallback(CallbackContext callbackContext, JSONObject data) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, data);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    /**
+     * Generic plugin command executor
+     *
+     * @param action
+     * @param data
+     * @param callbackContext
+     * @return false for unknown actions
+     */
+    @Override
+    public boolean execute(final String action, final JSONArray data, final CallbackContext callbackContext) {
+        if (PluginLog.isLoggable(Log.DEBUG)) {
+            PluginLog.d(pluginName, pluginName + " " + action + " called with options: " + data);
+        }
+
+        final ActionEntry entry = actions.get(action);
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.blocking) {
+            scheduler.submit(action, new Runnable() {
+                @Override
+                public void run() {
+                    runAction(action, entry, data, callbackContext);
+                }
+            }, callbackContext, entry.bulk);
+        } else {
+            runAction(action, entry, data, callbackContext);
+        }
+
+        return true;
+    }
+
+    /**
+     * Run a handler and make sure the callback is completed if it throws
+     */
+    private void runAction(String action, ActionEntry entry, JSONArray data, CallbackContext callbackContext) {
+        try {
+            entry.handler.handle(data, callbackContext);
+        } catch (Exception e) {
+            PluginLog.e(pluginName, "Action " + action + " failed", e);
+            sendError(callbackContext, action, e);
+        }
+    }
+
+    /**
+     * Complete the callback with a structured error: { action, error, message }
+     */
+    private void sendError(CallbackContext callbackContext, String action, Exception e) {
+        JSONObject error = new JSONObject();
+        try {
+            error.put("action", action);
+            error.put("error", e.getClass().getSimpleName());
+            error.put("message", e.getMessage());
+        } catch (JSONException ignored) {
+            // keys and values are plain strings
+        }
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, error));
+    }
+
+    /**
+     * Send batched intents right away when the app goes to the background
+     */
+    @Override
+    public void onPause(boolean multitasking) {
+        if (deliveryExecutor != null) {
+            deliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    intentBatcher.flush();
+                }
+            });
+        }
+        CopyCache.flushInstance();
+        ResolvedPathCache.flushInstance();
+        super.onPause(multitasking);
+    }
+
+    /**
+     * The page is navigating or reloading, streams it opened can't be closed
+     * by it anymore
+     */
+    @Override
+    public void onReset() {
+        if (streamRegistry != null) {
+            streamRegistry.closeAll();
+        }
+        super.onReset();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (batchResolver != null) {
+            batchResolver.shutdown();
+        }
+        if (thumbnailer != null) {
+            thumbnailer.shutdown();
+        }
+        if (fdLeases != null) {
+            fdLeases.shutdown();
+        }
+        if (treeWalker != null) {
+            treeWalker.shutdown();
+        }
+        if (streamRegistry != null) {
+            streamRegistry.shutdown();
+        }
+        if (metadataPool != null) {
+            metadataPool.shutdownNow();
+        }
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdownNow();
+        }
+        if (storageJanitor != null) {
+            storageJanitor.shutdown();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Send a JSON representation of the cordova intent back to the caller
+     *
+     * @param data [] or [options] where options may contain "pagedClipItems",
+     *             "fields", "maxExtrasLength" and "binary"
+     * @param context
+     */
+    public boolean getCordovaIntent (final JSONArray data, final CallbackContext context) throws Exception {
+        if(data.length() > 1) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
+
+        JSONObject options = data.optJSONObject(0);
+        boolean paged = options != null && options.optBoolean("pagedClipItems", false);
+        IntentSerializer serializer = IntentSerializer.fromOptions(options);
+        Intent intent = cordova.getActivity().getIntent();
+
+        // Paged payloads are not cached, their clip items handle is freed by the next intent
+        String key = serializer.getCacheKey();
+        Object payload = paged ? null : intentSnapshot.get(intent, key);
+        if (payload == null) {
+            int version = intentSnapshot.getVersion(intent);
+            JSONObject trailer = new JSONObject();
+            trailer.put("version", version);
+            payload = getIntentPayload(intent, serializer, !paged, paged, trailer);
+            if (!paged) {
+                intentSnapshot.put(intent, version, key, payload);
+            }
+        }
+        context.sendPluginResult(payloadResult(payload));
+        return true;
+    }
+
+    /**
+     * Send the version of the activity intent. It goes up whenever the
+     * intent changes, and matches "version" in the getCordovaIntent payload.
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean getCordovaIntentVersion (final JSONArray data, final CallbackContext context) {
+        int version = intentSnapshot.getVersion(cordova.getActivity().getIntent());
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, version));
+        return true;
+    }
+
+    /**
+     * Send a page of clip items registered by a paged intent payload
+     *
+     * @param data [handle, offset, limit, fields] where fields is optional
+     * @param context
+     * @return
+     */
+    public boolean getClipItems (final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() < 3) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
+
+        Set<String> fields = null;
+        JSONArray fieldArray = data.optJSONArray(3);
+        if (fieldArray != null) {
+            fields = new HashSet<>();
+            for (int i = 0; i < fieldArray.length(); i++) {
+                fields.add(fieldArray.getString(i));
+            }
+        }
+
+        JSONObject page = clipItemStore.getPage(data.getInt(0), data.getInt(1), data.getInt(2), fields);
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, page));
+        return true;
+    }
+
+    /**
+     * Register handler for onNewIntent event
+     *
+     * @param data [handler, options] where options may contain "deferMetadata",
+     *             "pagedClipItems", "batchWindowMs", "maxBatch", "fields",
+     *             "maxExtrasLength" and "binary"
+     * @param context
+     * @return
+     */
+    public boolean setNewIntentHandler (final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() != 1 && data.length() != 2) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
+
+        JSONObject options = data.optJSONObject(1);
+        this.deferMetadata = options != null && options.optBoolean("deferMetadata", false);
+        this.pagedClipItems = options != null && options.optBoolean("pagedClipItems", false);
+        this.intentSerializer = IntentSerializer.fromOptions(options);
+
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        context.sendPluginResult(result);
+
+        final long batchWindowMs = options != null ? options.optLong("batchWindowMs", 0) : 0;
+        final int maxBatch = options != null ? options.optInt("maxBatch", 50) : 50;
+
+        startupTrace.recordHandlerRegistered();
+        synchronized (intentQueue) {
+            this.onNewIntentCallbackContext = context;
+            deliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    intentBatcher.configure(context, batchWindowMs, maxBatch);
+                }
+            });
+            // Drain inside the lock, so intents arriving now are delivered after the pending ones
+            final List<Intent> pending = intentQueue.drain();
+            if (!pending.isEmpty()) {
+                deliveryExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Intent intent : pending) {
+                            try {
+                                deliverIntent(intent, context);
+                            } catch (Exception e) {
+                                PluginLog.e(pluginName, "Failed to deliver queued intent", e);
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Send enqueued, delivered and dropped counters of the intent queue
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean getIntentQueueStats (final JSONArray data, final CallbackContext context) throws JSONException {
+        JSONObject stats;
+        synchronized (intentQueue) {
+            stats = intentQueue.getStats();
+        }
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, stats));
+        return true;
+    }
+
+    /**
+     * Triggered on new intent
+     *
+     * @param intent
+     */
+    @Override
+    public void onNewIntent(final Intent intent) {
+        // Clip items handles only live until the next intent
+        clipItemStore.clear();
+        synchronized (intentQueue) {
+            final CallbackContext callbackContext = this.onNewIntentCallbackContext;
+            if (callbackContext == null) {
+                intentQueue.offer(intent);
+                return;
+            }
+            intentQueue.countDelivered();
+            deliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliverIntent(intent, callbackContext);
+                }
+            });
+        }
+    }
+
+    /**
+     * Return JSON representation of intent attributes
+     *
+     * @param intent
+     * @param serializer selected fields, extras limit and encoding
+     * @param withFileMeta query fileName, fileSize and lastModified of every clip item
+     * @param pagedClipItems send clipItemCount and clipItemsHandle instead of clipItems
+     * @param trailer fields added at the end, may be null
+     * @return serialized JSON object, or CBOR bytes if the serializer is binary
+     */
+    private Object getIntentPayload(Intent intent, IntentSerializer serializer, boolean withFileMeta,
+                                    boolean pagedClipItems, JSONObject trailer) throws IOException {
+        JSONObject[] metas = null;
+        int clipItemsHandle = -1;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && serializer.wants("clipItems")) {
+            ClipData clipData = intent.getClipData();
+            if (clipData != null && pagedClipItems) {
+                clipItemsHandle = clipItemStore.register(clipData);
+            } else if (clipData != null && withFileMeta && serializer.wantsClipItemMeta()) {
+                metas = getFileMetaFromUris(clipData);
+            }
+        }
+        long started = Metrics.start("serialize");
+        long length = -1;
+        try {
+            if (serializer.isBinary()) {
+                byte[] cbor = serializer.writeCbor(intent, metas, clipItemsHandle, trailer);
+                length = cbor.length;
+                return cbor;
+            }
+            String json = serializer.write(intent, metas, clipItemsHandle, trailer);
+            length = json.length();
+            return json;
+        } finally {
+            Metrics.record("serialize", null, started, Math.max(0, length), length >= 0);
+        }
+    }
+
+
+    /**
+     * Resolve a content URI to a file path, copying it if needed. With
+     * options.hash, e.g. { hash: ["sha256"] }, sends { path, digests } instead
+     * of the bare path; digests are computed during the copy when there is one.
+     *
+     * With options.lease, the provider's file is leased instead of copied and
+     * { path, handle, size, expiresAt } is sent, see releaseLease. Sources
+     * that can't be leased are resolved as usual and sent as { path }.
+     *
+     * @param data [uri] or [uri, options]
+     * @param context
+     * @return
+     */
+    public boolean getRealPathFromContentUrl(final JSONArray data, final CallbackContext context) {
+
+        if(data.length() < 1 || data.length() > 2) {
+            PluginLog.i("Data length ", String.valueOf(data.length()));
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
+        try{
+            Uri uri = Uri.parse(data.getString(0));
+            JSONObject options = data.optJSONObject(1);
+            ContentDigest digest = options != null ? ContentDigest.fromOptions(options.optJSONArray("hash")) : null;
+            boolean lease = options != null && options.optBoolean("lease", false);
+
+            JSONObject resolved = null;
+            String result = null;
+            if (lease && ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+                try {
+                    resolved = fdLeases.lease(uri, options.optLong("leaseTimeoutMs", FdLeaseRegistry.DEFAULT_TIMEOUT_MS)).toJson();
+                    result = resolved.getString("path");
+                } catch (IOException | SecurityException e) {
+                    PluginLog.d(pluginName, "No lease for " + uri + ", resolving it: " + e.getMessage());
+                }
+            }
+            if (resolved == null) {
+                FileUtils fileUtils = new FileUtils(this.cordova.getContext());
+                fileUtils.setDigest(digest);
+                result = ResolvedPathCache.getInstance(this.cordova.getContext())
+                        .resolve(fileUtils, uri);
+                if (digest == null && !lease) {
+                    context.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
+                    return true;
+                }
+                resolved = new JSONObject();
+                resolved.put("path", result);
+            }
+            if (digest != null && result != null) {
+                resolved.put("digests", finishDigest(uri, digest, ContentHasher.DEFAULT_PARALLELISM));
+            }
+            context.sendPluginResult(new PluginResult(PluginResult.Status.OK, resolved));
+            return true;
+        }catch(Exception e){
+            sendError(context, "getRealPathFromContentUrl", e);
+            return false;
+        }
+        // Previous approach, for older devices
+        /*
+        ContentResolver cR = this.cordova.getActivity().getApplicationContext().getContentResolver();
+        Cursor cursor = null;
+        try {
+            String[] proj = { MediaStore.Images.Media.DATA };
+            cursor = cR.query(Uri.parse(data.getString(0)),  proj, null, null, null);
+            int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
+            cursor.moveToFirst();
+
+            context.sendPluginResult(new PluginResult(PluginResult.Status.OK, cursor.getString(column_index)));
+            return true;
+        }catch (Exception e){
+            PluginLog.d(pluginName, pluginName + " Error thrown during intent resolve ");
+            PluginLog.d(pluginName, e.getMessage());
+        } finally{
+            if (cursor != null) {
+                cursor.close();
+            }
+
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
+        */
+    }
 
-    @Override
-    protected void pluginInitialize() {
-        Log.d(pluginName,   "Initialized" );
-        final Intent cordovaIntent = this.cordova.getActivity().getIntent();
-        final String intentAction = cordovaIntent.getAction();
-        if(intentAction == Intent.ACTION_SEND || intentAction == Intent.ACTION_SEND_MULTIPLE){
-            this.bootIntent = cordovaIntent;
+    /**
+     * Release a path leased by getRealPathFromContentUrl, sends true if the
+     * lease was still held
+     *
+     * @param data [handle]
+     * @param context
+     * @return
+     */
+    public boolean releaseLease(final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() != 1) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
         }
+
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, fdLeases.release(data.getInt(0))));
+        return true;
     }
 
-    protected void  handleBootIntent(final CallbackContext callbackContext){
-        try {
-            final JSONObject data = getIntentJson(this.bootIntent);
-            assert data != null;
-            PluginResult result = new PluginResult(PluginResult.Status.OK, data);
-            result.setKeepCallback(true);
-            this.bootIntent = null;
-            callbackContext.sendPluginResult(result);
-        }catch (Exception e){
-            e.printStackTrace();
+    public boolean getLeaseStats(final JSONArray data, final CallbackContext context) throws JSONException {
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, fdLeases.getStats()));
+        return true;
+    }
+
+    /**
+     * Resolve many content URIs in one call. Per-URI results are streamed back
+     * as they finish, followed by a summary with "done": true.
+     *
+     * @param data [uris, options] where options may contain "concurrency"
+     * @param context
+     * @return
+     */
+    public boolean resolvePaths(final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() < 1 || data.optJSONArray(0) == null) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
+
+        JSONArray uriArray = data.getJSONArray(0);
+        JSONObject options = data.optJSONObject(1);
+        int concurrency = options != null ? options.optInt("concurrency", 4) : 4;
+
+        List<String> uris = new ArrayList<>(uriArray.length());
+        for (int i = 0; i < uriArray.length(); i++) {
+            uris.add(uriArray.getString(i));
         }
+
+        batchResolver.resolve(uris, concurrency, context);
+        return true;
     }
 
     /**
-     * Generic plugin command executor
+     * Small previews of many content URIs, without copying them. Per-URI
+     * results are streamed back as they finish, followed by a summary with
+     * "done": true.
      *
-     * @param action
-     * @param data
-     * @param callbackContext
+     * @param data [uris, options] where options may contain "maxPx", "format",
+     *             "quality", "inline" and "concurrency"
+     * @param context
      * @return
      */
-    @Override
-    public boolean execute(final String action, final JSONArray data, final CallbackContext callbackContext) {
-        Log.d(pluginName, pluginName + " called with options: " + data);
+    public boolean getThumbnails(final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() < 1 || data.optJSONArray(0) == null) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
 
-        Class params[] = new Class[2];
-        params[0] = JSONArray.class;
-        params[1] = CallbackContext.class;
+        JSONArray uriArray = data.getJSONArray(0);
+        JSONObject options = data.optJSONObject(1);
+        Thumbnailer.Spec spec = new Thumbnailer.Spec(options);
+        int concurrency = options != null ? options.optInt("concurrency", 2) : 2;
 
-        try {
-            Method method = this.getClass().getDeclaredMethod(action, params);
-            method.invoke(this, data, callbackContext);
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        List<String> uris = new ArrayList<>(uriArray.length());
+        for (int i = 0; i < uriArray.length(); i++) {
+            uris.add(uriArray.getString(i));
         }
 
+        thumbnailer.generate(uris, spec, concurrency, context);
+        return true;
+    }
+
+    public boolean getThumbnailStats(final JSONArray data, final CallbackContext context) throws JSONException {
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, thumbnailer.getStats()));
         return true;
     }
 
     /**
-     * Send a JSON representation of the cordova intent back to the caller
+     * Copy a content URI into internal storage, reporting progress. Sends
+     * { id, event: "started" } and throttled
+     * { id, event: "progress", bytes, total, rate } results on a kept-alive
+     * callback, then { id, event: "done", path }. A cancelled or failed copy
+     * leaves no file behind that looks complete.
      *
-     * @param data
+     * With options.hash, e.g. ["sha256", "crc32c"], the done event also
+     * carries the digests, computed while the bytes are copied.
+     *
+     * @param data [uri, options] where options may contain "id", "progressIntervalMs" and "hash"
      * @param context
+     * @return
      */
-    public boolean getCordovaIntent (final JSONArray data, final CallbackContext context) {
-        if(data.length() != 0) {
+    public boolean importFile(final JSONArray data, final CallbackContext context) throws Exception {
+        if(data.length() < 1) {
             context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
             return false;
         }
 
-        Intent intent = cordova.getActivity().getIntent();
-        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, getIntentJson(intent)));
+        Uri uri = Uri.parse(data.getString(0));
+        JSONObject options = data.optJSONObject(1);
+        final String id = options != null && options.has("id")
+                ? options.getString("id") : "import-" + importIds.incrementAndGet();
+        long interval = options != null ? options.optLong("progressIntervalMs", 250) : 250;
+        ContentDigest digest = options != null ? ContentDigest.fromOptions(options.optJSONArray("hash")) : null;
+
+        CopyEngine.Control control = new CopyEngine.Control(new CopyEngine.Control.Listener() {
+            @Override
+            public void onProgress(long bytes, long total, long bytesPerSecond) {
+                JSONObject progress = new JSONObject();
+                try {
+                    progress.put("id", id);
+                    progress.put("event", "progress");
+                    progress.put("bytes", bytes);
+                    progress.put("total", total);
+                    progress.put("rate", bytesPerSecond);
+                } catch (JSONException e) {
+                    PluginLog.d(pluginName, e.getMessage());
+                }
+                sendKeepCallback(context, progress);
+            }
+        }, interval);
+        if (imports.putIfAbsent(id, control) != null) {
+            throw new IllegalArgumentException("Import " + id + " is already running");
+        }
+
+        try {
+            JSONObject started = new JSONObject();
+            started.put("id", id);
+            started.put("event", "started");
+            sendKeepCallback(context, started);
+
+            FileUtils fileUtils = new FileUtils(this.cordova.getContext());
+            fileUtils.setDigest(digest);
+            String path = fileUtils.importFile(uri, control);
+            JSONObject done = new JSONObject();
+            done.put("id", id);
+            done.put("event", "done");
+            done.put("path", path);
+            if (digest != null && path != null) {
+                done.put("digests", finishDigest(uri, digest, ContentHasher.DEFAULT_PARALLELISM));
+            }
+            context.sendPluginResult(new PluginResult(PluginResult.Status.OK, done));
+            return true;
+        } finally {
+            imports.remove(id);
+        }
+    }
+
+    /**
+     * Hash a content URI without copying it
+     *
+     * @param data [uri, options] where options may contain "algorithms"
+     *             (default ["sha256"]) and "parallelism"
+     * @param context
+     * @return
+     */
+    public boolean hashContent(final JSONArray data, final CallbackContext context) throws Exception {
+        if(data.length() < 1) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
+
+        Uri uri = Uri.parse(data.getString(0));
+        JSONObject options = data.optJSONObject(1);
+        JSONArray algorithms = options != null ? options.optJSONArray("algorithms") : null;
+        if (algorithms == null) {
+            algorithms = new JSONArray().put(ContentDigest.SHA256);
+        }
+        int parallelism = options != null
+                ? options.optInt("parallelism", ContentHasher.DEFAULT_PARALLELISM) : ContentHasher.DEFAULT_PARALLELISM;
+
+        ContentDigest digest = ContentDigest.fromOptions(algorithms);
+        if (digest == null) {
+            throw new IllegalArgumentException("No hash algorithm requested");
+        }
+        long size = ContentHasher.hash(this.cordova.getContext().getContentResolver(), uri, digest, parallelism);
+
+        JSONObject result = new JSONObject();
+        result.put("uri", uri.toString());
+        result.put("size", size);
+        result.put("digests", digest.toJson());
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
         return true;
     }
 
     /**
-     * Register handler for onNewIntent event
+     * Digests of a resolved URI. A copy fills the digest as it goes; when no
+     * copy ran (a direct path or a cached copy) the source is hashed instead.
+     */
+    private JSONObject finishDigest(Uri uri, ContentDigest digest, int parallelism) throws IOException {
+        if (!digest.isFinished()) {
+            ContentHasher.hash(this.cordova.getContext().getContentResolver(), uri, digest, parallelism);
+        }
+        return digest.toJson();
+    }
+
+    /**
+     * Cancel a running importFile copy, sends true if it was running
      *
-     * @param data
+     * @param data [id]
      * @param context
      * @return
      */
-    public boolean setNewIntentHandler (final JSONArray data, final CallbackContext context) {
+    public boolean cancelImport(final JSONArray data, final CallbackContext context) throws JSONException {
         if(data.length() != 1) {
             context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
             return false;
         }
 
-        this.onNewIntentCallbackContext = context;
-
-        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-        result.setKeepCallback(true);
-        context.sendPluginResult(result);
-        if(this.bootIntent != null){
-            this.handleBootIntent(context);
+        CopyEngine.Control control = imports.get(data.getString(0));
+        if (control != null) {
+            control.cancel();
         }
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, control != null));
         return true;
     }
 
     /**
-     * Triggered on new intent
+     * Walk the documents under a tree URI from ACTION_OPEN_DOCUMENT_TREE.
+     * Files are sent in batches as { id, event: "entries", entries } on a
+     * kept-alive callback, then { id, event: "done", files, directories, ... }.
      *
-     * @param intent
+     * @param data [treeUri, options] where options may contain "id",
+     *             "batchSize", "maxFrontier", "maxDepth", "maxEntries",
+     *             "lastModified", "resolve" and "concurrency"
+     * @param context
+     * @return
      */
-    @Override
-    public void onNewIntent(Intent intent) {
-        if (this.onNewIntentCallbackContext != null) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK, getIntentJson(intent));
-            result.setKeepCallback(true);
-            this.onNewIntentCallbackContext.sendPluginResult(result);
+    public boolean walkTree(final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() < 1) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
         }
+
+        TreeWalker.Options options = new TreeWalker.Options(data.optJSONObject(1));
+        treeWalker.walk(Uri.parse(data.getString(0)), options, context);
+        return true;
     }
 
     /**
-     * Return JSON representation of intent attributes
+     * Cancel a running walkTree, sends true if it was running
      *
-     * @param intent
+     * @param data [id]
+     * @param context
      * @return
      */
-    private JSONObject getIntentJson(Intent intent) {
-        JSONObject intentJSON = null;
-        ClipData clipData = null;
-        JSONObject[] items = null;
+    public boolean cancelWalk(final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() != 1) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            return false;
+        }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            clipData = intent.getClipData();
-            if (clipData != null) {
-                int clipItemCount = clipData.getItemCount();
-                items = new JSONObject[clipItemCount];
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, treeWalker.cancel(data.getString(0))));
+        return true;
+    }
 
-                for (int i = 0; i < clipItemCount; i++) {
-                    ClipData.Item item = clipData.getItemAt(i);
+    /**
+     * Drop a URI from the resolved path cache and the copy cache, or both
+     * caches entirely if no URI is given
+     *
+     * @param data [] or [uri]
+     * @param context
+     * @return
+     */
+    public boolean invalidate(final JSONArray data, final CallbackContext context) {
+        String uri = data.length() > 0 && !data.isNull(0) ? data.optString(0) : null;
+        ResolvedPathCache.getInstance(this.cordova.getContext()).invalidate(uri);
+        CopyCache.getInstance(this.cordova.getContext()).invalidate(uri);
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+        return true;
+    }
 
-                    try {
-                        items[i] = new JSONObject();
-                        items[i].put("htmlText", item.getHtmlText());
-                        items[i].put("intent", item.getIntent());
-                        items[i].put("text", item.getText());
-                        Uri uri = item.getUri();
-                        items[i].put("uri", uri);
-
-                        JSONObject fileMeta = getFileMetaFromUri(uri);
-                        // Merge metadata
-                        items[i].put("fileName", fileMeta.optString("name"));
-                        items[i].put("fileSize", fileMeta.optLong("size"));
-                        items[i].put("lastModified", fileMeta.optLong("modifiedDate"));
-
-
-                    } catch (JSONException e) {
-                        Log.d(pluginName, pluginName + " Error thrown during intent > JSON conversion");
-                        Log.d(pluginName, e.getMessage());
-                        Log.d(pluginName, Arrays.toString(e.getStackTrace()));
-                    }
-                }
-            }
-        }
+    /**
+     * Send hit rate and size of the resolved path cache
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean getPathCacheStats(final JSONArray data, final CallbackContext context) throws JSONException {
+        JSONObject stats = ResolvedPathCache.getInstance(this.cordova.getContext()).getStats();
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, stats));
+        return true;
+    }
 
-        try {
-            intentJSON = new JSONObject();
+    /**
+     * Send the concurrency limit, timeouts and breaker state of every
+     * provider authority seen so far
+     *
+     * @param data []
+     * @param context
+     * @return
+     */
+    public boolean getProviderStats(final JSONArray data, final CallbackContext context) throws JSONException {
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, ProviderGuard.getStats()));
+        return true;
+    }
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                if (items != null) {
-                    intentJSON.put("clipItems", new JSONArray(items));
-                }
-            }
+    /**
+     * Send call counts, bytes and latency histograms per stage and provider,
+     * see Metrics
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean getMetrics(final JSONArray data, final CallbackContext context) throws JSONException {
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, Metrics.snapshot()));
+        return true;
+    }
 
-            intentJSON.put("type", intent.getType());
-            intentJSON.put("extras", intent.getExtras());
-            intentJSON.put("action", intent.getAction());
-            intentJSON.put("categories", intent.getCategories());
-            intentJSON.put("flags", intent.getFlags());
-            intentJSON.put("component", intent.getComponent());
-            intentJSON.put("data", intent.getData());
-            intentJSON.put("package", intent.getPackage());
-
-            return intentJSON;
-        } catch (JSONException e) {
-            Log.d(pluginName, pluginName + " Error thrown during intent > JSON conversion");
-            Log.d(pluginName, e.getMessage());
-            Log.d(pluginName, Arrays.toString(e.getStackTrace()));
+    /**
+     * Clear all metrics
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean resetMetrics(final JSONArray data, final CallbackContext context) {
+        Metrics.reset();
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+        return true;
+    }
 
-            return null;
-        }
+    /**
+     * Send the startup timings, see StartupTrace
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean getStartupTrace(final JSONArray data, final CallbackContext context) throws JSONException {
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, startupTrace.toJson()));
+        return true;
     }
 
+    /**
+     * Send folder sizes and sweep counters of the storage janitor
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean getStorageStats(final JSONArray data, final CallbackContext context) throws JSONException {
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, storageJanitor.getStats()));
+        return true;
+    }
 
-    public boolean getRealPathFromContentUrl(final JSONArray data, final CallbackContext context) {
+    /**
+     * Send hit, miss and eviction counters of the copy cache
+     *
+     * @param data
+     * @param context
+     * @return
+     */
+    public boolean getCopyCacheStats(final JSONArray data, final CallbackContext context) throws JSONException {
+        JSONObject stats = CopyCache.getInstance(this.cordova.getContext()).getStats();
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, stats));
+        return true;
+    }
 
-        if(!(data.length() == 1)) {
-            Log.i("Data length ", String.valueOf(data.length()));
+    /**
+     * Open a read stream on a content URI, sends { handle, size }
+     *
+     * @param data [uri]
+     * @param context
+     * @return
+     */
+    public boolean openStream(final JSONArray data, final CallbackContext context) throws Exception {
+        if(data.length() != 1) {
             context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
             return false;
         }
-        try{
-            FileUtils fileUtils = new FileUtils(this.cordova.getContext());
-            String result = fileUtils.getPath(Uri.parse(data.getString(0)));
-            context.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
-            return true;
-        }catch(Exception e){
-            context.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+
+        int handle = streamRegistry.open(Uri.parse(data.getString(0)));
+        JSONObject stream = new JSONObject();
+        stream.put("handle", handle);
+        stream.put("size", streamRegistry.getSize(handle));
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, stream));
+        return true;
+    }
+
+    /**
+     * Read a chunk of an open stream, sent as an ArrayBuffer. The buffer is
+     * shorter than requested at the end of the stream, and empty past it.
+     *
+     * @param data [handle, offset, length]
+     * @param context
+     * @return
+     */
+    public boolean readChunk(final JSONArray data, final CallbackContext context) throws Exception {
+        if(data.length() != 3) {
+            context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
             return false;
         }
-        // Previous approach, for older devices
-        /*
-        ContentResolver cR = this.cordova.getActivity().getApplicationContext().getContentResolver();
-        Cursor cursor = null;
-        try {
-            String[] proj = { MediaStore.Images.Media.DATA };
-            cursor = cR.query(Uri.parse(data.getString(0)),  proj, null, null, null);
-            int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-            cursor.moveToFirst();
 
-            context.sendPluginResult(new PluginResult(PluginResult.Status.OK, cursor.getString(column_index)));
-            return true;
-        }catch (Exception e){
-            Log.d(pluginName, pluginName + " Error thrown during intent resolve ");
-            Log.d(pluginName, e.getMessage());
-        } finally{
-            if (cursor != null) {
-                cursor.close();
-            }
+        byte[] chunk = streamRegistry.read(data.getInt(0), data.getLong(1), data.getInt(2));
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK, chunk));
+        return true;
+    }
 
+    /**
+     * Close an open stream
+     *
+     * @param data [handle]
+     * @param context
+     * @return
+     */
+    public boolean closeStream(final JSONArray data, final CallbackContext context) throws JSONException {
+        if(data.length() != 1) {
             context.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
             return false;
         }
-        */
+
+        streamRegistry.close(data.getInt(0));
+        context.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+        return true;
+    }
+
+    private static void mergeFileMeta(JSONObject item, JSONObject fileMeta) throws JSONException {
+        item.put("fileName", fileMeta.optString("name"));
+        item.put("fileSize", fileMeta.optLong("size"));
+        item.put("lastModified", fileMeta.optLong("modifiedDate"));
+    }
+
+    /**
+     * Query metadata of every clip item on the metadata pool
+     *
+     * @param clipData
+     * @return one metadata object per clip item, empty for items without a URI
+     */
+    private JSONObject[] getFileMetaFromUris(ClipData clipData) {
+        int count = clipData.getItemCount();
+        JSONObject[] metas = new JSONObject[count];
+        List<Future<JSONObject>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Uri uri = clipData.getItemAt(i).getUri();
+            if (uri == null) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(metadataPool.submit(new Callable<JSONObject>() {
+                @Override
+                public JSONObject call() {
+                    return getFileMetaFromUri(uri);
+                }
+            }));
+        }
+
+        for (int i = 0; i < count; i++) {
+            Future<JSONObject> future = futures.get(i);
+            metas[i] = new JSONObject();
+            if (future == null) {
+                continue;
+            }
+            try {
+                metas[i] = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                PluginLog.d(pluginName, "Error building file metadata: " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (metas[i] == null) {
+                metas[i] = new JSONObject();
+            }
+        }
+        return metas;
     }
 
     private JSONObject getFileMetaFromUri(Uri uri) {
@@ -262,30 +1426,11 @@ public class IntentPlugin extends CordovaPlugin {
                 size = file.length();
                 modDate = file.lastModified();
             } else {
-                Cursor cursor = cordova.getActivity().getContentResolver()
-                        .query(uri, null, null, null, null);
-                if (cursor != null) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex != -1 && cursor.moveToFirst()) {
-                        name = cursor.getString(nameIndex);
-                    }
-
-                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
-                    if (sizeIndex != -1) {
-                        size = cursor.getLong(sizeIndex);
-                    }
-
-                    // Try common modified date columns
-                    int modIndex = cursor.getColumnIndex("last_modified");
-                    if (modIndex == -1) {
-                        modIndex = cursor.getColumnIndex("date_modified");
-                    }
-                    if (modIndex != -1) {
-                        modDate = cursor.getLong(modIndex);
-                    }
-
-                    cursor.close();
-                }
+                // Only DISPLAY_NAME, SIZE and the modified date column are queried
+                FileUtils.SourceInfo info = new FileUtils(cordova.getContext()).querySourceInfo(uri);
+                name = info.name;
+                size = info.size;
+                modDate = info.lastModified;
             }
 
             // Fallbacks
@@ -299,8 +1444,8 @@ public class IntentPlugin extends CordovaPlugin {
             meta.put("modifiedDate", modDate);
 
         } catch (Exception e) {
-            Log.d(pluginName, "Error building file metadata: " + e.getMessage());
+            PluginLog.d(pluginName, "Error building file metadata: " + e.getMessage());
         }
         return meta;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,127 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Intent;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded queue of intents that arrived while no onNewIntent handler was
+ * registered. The queue is drained in arrival order when a handler registers.
+ *
+ * When the queue is full, the overflow policy decides what happens:
+ *  - "drop-oldest": the oldest pending intent is dropped (default)
+ *  - "coalesce":    the new intent replaces the latest pending intent that
+ *                   matches it (Intent.filterEquals), otherwise the oldest
+ *                   pending intent is dropped
+ *  - "reject":      the new intent is dropped
+ *
+ * Not thread safe, callers synchronize on the queue.
+ */
+public class IntentQueue {
+
+    public static final String POLICY_DROP_OLDEST = "drop-oldest";
+    public static final String POLICY_COALESCE = "coalesce";
+    public static final String POLICY_REJECT = "reject";
+
+    private static final String TAG = "IntentQueue";
+
+    private final ArrayDeque<Intent> pending;
+    private final int capacity;
+    private final String policy;
+
+    private long enqueued = 0;
+    private long delivered = 0;
+    private long dropped = 0;
+
+    /**
+     * @param capacity maximum number of pending intents
+     * @param policy overflow policy, see class comment
+     */
+    public IntentQueue(int capacity, String policy) {
+        this.capacity = Math.max(1, capacity);
+        this.pending = new ArrayDeque<>(this.capacity);
+        if (POLICY_COALESCE.equalsIgnoreCase(policy)) {
+            this.policy = POLICY_COALESCE;
+        } else if (POLICY_REJECT.equalsIgnoreCase(policy)) {
+            this.policy = POLICY_REJECT;
+        } else {
+            this.policy = POLICY_DROP_OLDEST;
+        }
+    }
+
+    /**
+     * Queue an intent
+     *
+     * @return false if the intent itself was dropped
+     */
+    public boolean offer(Intent intent) {
+        if (pending.size() >= capacity) {
+            if (POLICY_REJECT.equals(policy)) {
+                dropped++;
+                PluginLog.w(TAG, "Intent queue full, dropping new intent " + intent.getAction());
+                return false;
+            }
+            if (!POLICY_COALESCE.equals(policy) || !replaceMatching(intent)) {
+                Intent oldest = pending.pollFirst();
+                pending.addLast(intent);
+                PluginLog.w(TAG, "Intent queue full, dropping oldest intent " + (oldest != null ? oldest.getAction() : null));
+            }
+            dropped++;
+            enqueued++;
+            return true;
+        }
+        pending.addLast(intent);
+        enqueued++;
+        return true;
+    }
+
+    /**
+     * Remove and return all pending intents in arrival order. They are
+     * counted as delivered.
+     */
+    public List<Intent> drain() {
+        List<Intent> intents = new ArrayList<>(pending);
+        pending.clear();
+        delivered += intents.size();
+        return intents;
+    }
+
+    /**
+     * Count an intent that was delivered without being queued
+     */
+    public void countDelivered() {
+        delivered++;
+    }
+
+    public JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("enqueued", enqueued);
+        stats.put("delivered", delivered);
+        stats.put("dropped", dropped);
+        stats.put("pending", pending.size());
+        stats.put("capacity", capacity);
+        stats.put("policy", policy);
+        return stats;
+    }
+
+    /**
+     * Replace the latest pending intent that matches, keeping its position
+     */
+    private boolean replaceMatching(Intent intent) {
+        List<Intent> intents = new ArrayList<>(pending);
+        for (int i = intents.size() - 1; i >= 0; i--) {
+            if (intents.get(i).filterEquals(intent)) {
+                intents.set(i, intent);
+                pending.clear();
+                pending.addAll(intents);
+                return true;
+            }
+        }
+        return false;
+    }
+}
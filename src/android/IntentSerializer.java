@@ -0,0 +1,294 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ClipData;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes intent payloads straight to a JSON string with JsonWriter, or to
+ * CBOR bytes in binary mode, without building a JSONObject tree first.
+ *
+ * Only the selected fields are written. A selection lists intent fields
+ * ("action", "extras", ...) and clip item fields as "clipItems.uri". Plain
+ * "clipItems" selects every clip item field. Without a selection every field
+ * is written, in the same format as before.
+ *
+ * Extras are written as the Bundle's string form, cut off after
+ * maxExtrasLength characters. A cut is flagged with "extrasTruncated": true.
+ */
+public class IntentSerializer {
+
+    public static final int DEFAULT_MAX_EXTRAS_LENGTH = 64 * 1024;
+
+    static final Set<String> INTENT_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "clipItems", "type", "extras", "action", "categories", "flags", "component", "data", "package"
+    )));
+
+    private static final Set<String> META_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "fileName", "fileSize", "lastModified"
+    )));
+
+    private static final String CLIP_ITEMS_PREFIX = "clipItems.";
+
+    private static final String TAG = "IntentSerializer";
+
+    private final Set<String> fields;
+    private final Set<String> itemFields;
+    private final int maxExtrasLength;
+    private final boolean binary;
+
+    /**
+     * Serializer writing every field
+     */
+    public IntentSerializer() {
+        this(null, DEFAULT_MAX_EXTRAS_LENGTH);
+    }
+
+    /**
+     * @param selection selected fields, null or empty for all
+     * @param maxExtrasLength characters of extras to write, 0 for no limit
+     */
+    public IntentSerializer(Set<String> selection, int maxExtrasLength) {
+        this(selection, maxExtrasLength, false);
+    }
+
+    /**
+     * @param selection selected fields, null or empty for all
+     * @param maxExtrasLength characters of extras to write, 0 for no limit
+     * @param binary payloads are sent as CBOR, see {@link #writeCbor}
+     */
+    public IntentSerializer(Set<String> selection, int maxExtrasLength, boolean binary) {
+        this.maxExtrasLength = Math.max(0, maxExtrasLength);
+        this.binary = binary;
+        if (selection == null || selection.isEmpty()) {
+            this.fields = INTENT_FIELDS;
+            this.itemFields = ClipItemStore.ALL_FIELDS;
+            return;
+        }
+
+        Set<String> intentFields = new HashSet<>();
+        Set<String> items = new HashSet<>();
+        for (String field : selection) {
+            if (field.startsWith(CLIP_ITEMS_PREFIX)) {
+                intentFields.add("clipItems");
+                items.add(field.substring(CLIP_ITEMS_PREFIX.length()));
+            } else if (field.equals("clipItems")) {
+                intentFields.add(field);
+                items.addAll(ClipItemStore.ALL_FIELDS);
+            } else {
+                intentFields.add(field);
+            }
+        }
+        this.fields = intentFields;
+        this.itemFields = items;
+    }
+
+    /**
+     * Read "fields", "maxExtrasLength" and "binary" from action options
+     *
+     * @param options may be null
+     */
+    static IntentSerializer fromOptions(JSONObject options) throws JSONException {
+        if (options == null) {
+            return new IntentSerializer();
+        }
+        Set<String> selection = null;
+        JSONArray fieldArray = options.optJSONArray("fields");
+        if (fieldArray != null) {
+            selection = new HashSet<>();
+            for (int i = 0; i < fieldArray.length(); i++) {
+                selection.add(fieldArray.getString(i));
+            }
+        }
+        return new IntentSerializer(selection, options.optInt("maxExtrasLength", DEFAULT_MAX_EXTRAS_LENGTH),
+                options.optBoolean("binary", false));
+    }
+
+    /**
+     * @return a string that is equal for serializers writing the same output
+     */
+    public String getCacheKey() {
+        return new TreeSet<>(fields) + "|" + new TreeSet<>(itemFields) + "|" + maxExtrasLength
+                + (binary ? "|cbor" : "");
+    }
+
+    /**
+     * @return true if payloads are sent as CBOR
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean wants(String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * @return true if clip items are written with file metadata fields
+     */
+    public boolean wantsClipItemMeta() {
+        return fields.contains("clipItems") && !Collections.disjoint(itemFields, META_FIELDS);
+    }
+
+    /**
+     * Serialize an intent
+     *
+     * @param intent
+     * @param metas file metadata per clip item, null to leave it out
+     * @param clipItemsHandle written with clipItemCount instead of the clip items if not -1
+     * @param trailer extra fields written at the end, may be null
+     * @return a JSON object
+     */
+    public String write(Intent intent, JSONObject[] metas, int clipItemsHandle, JSONObject trailer) throws IOException {
+        PayloadWriter.Json writer = new PayloadWriter.Json();
+        write(writer, intent, metas, clipItemsHandle, trailer);
+        return writer.finish();
+    }
+
+    /**
+     * Serialize an intent to CBOR, with the same fields as {@link #write}
+     *
+     * @return a CBOR map
+     */
+    public byte[] writeCbor(Intent intent, JSONObject[] metas, int clipItemsHandle, JSONObject trailer) throws IOException {
+        CborWriter writer = new CborWriter();
+        write(writer, intent, metas, clipItemsHandle, trailer);
+        return writer.toByteArray();
+    }
+
+    private void write(PayloadWriter writer, Intent intent, JSONObject[] metas, int clipItemsHandle,
+                       JSONObject trailer) throws IOException {
+        writer.beginObject();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && fields.contains("clipItems")) {
+            ClipData clipData = intent.getClipData();
+            if (clipData != null && clipItemsHandle != -1) {
+                writer.name("clipItemCount").value(clipData.getItemCount());
+                writer.name("clipItemsHandle").value(clipItemsHandle);
+            } else if (clipData != null) {
+                writer.name("clipItems");
+                writeClipItems(writer, clipData, metas);
+            }
+        }
+
+        if (fields.contains("type")) field(writer, "type", intent.getType());
+        if (fields.contains("extras")) writeExtras(writer, intent);
+        if (fields.contains("action")) field(writer, "action", intent.getAction());
+        if (fields.contains("categories")) field(writer, "categories", intent.getCategories());
+        if (fields.contains("flags")) field(writer, "flags", intent.getFlags());
+        if (fields.contains("component")) field(writer, "component", intent.getComponent());
+        if (fields.contains("data")) field(writer, "data", intent.getData());
+        if (fields.contains("package")) field(writer, "package", intent.getPackage());
+
+        if (trailer != null) {
+            Iterator<String> keys = trailer.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                field(writer, key, trailer.opt(key));
+            }
+        }
+
+        writer.endObject();
+    }
+
+    private void writeClipItems(PayloadWriter writer, ClipData clipData, JSONObject[] metas) throws IOException {
+        writer.beginArray();
+        for (int i = 0; i < clipData.getItemCount(); i++) {
+            ClipData.Item item = clipData.getItemAt(i);
+            writer.beginObject();
+            if (itemFields.contains("htmlText")) field(writer, "htmlText", item.getHtmlText());
+            if (itemFields.contains("intent")) field(writer, "intent", item.getIntent());
+            if (itemFields.contains("text")) field(writer, "text", item.getText());
+            if (itemFields.contains("uri")) field(writer, "uri", item.getUri());
+            if (metas != null) {
+                JSONObject meta = metas[i];
+                if (itemFields.contains("fileName")) field(writer, "fileName", meta.optString("name"));
+                if (itemFields.contains("fileSize")) field(writer, "fileSize", meta.optLong("size"));
+                if (itemFields.contains("lastModified")) field(writer, "lastModified", meta.optLong("modifiedDate"));
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Write extras as "Bundle[{key=value, ...}]", values are converted one at
+     * a time so a cut never stringifies the rest of the Bundle
+     */
+    private void writeExtras(PayloadWriter writer, Intent intent) throws IOException {
+        Bundle extras;
+        StringBuilder text = new StringBuilder("Bundle[{");
+        boolean truncated = false;
+        try {
+            extras = intent.getExtras();
+            if (extras == null) {
+                return;
+            }
+            boolean first = true;
+            for (String key : extras.keySet()) {
+                if (!first) {
+                    text.append(", ");
+                }
+                first = false;
+                text.append(key).append('=');
+                // Bundle.get is the only untyped getter, the typed ones need API 33
+                @SuppressWarnings("deprecation")
+                Object value = extras.get(key);
+                if (value instanceof CharSequence && maxExtrasLength > 0) {
+                    CharSequence chars = (CharSequence) value;
+                    int room = Math.max(0, maxExtrasLength - text.length());
+                    text.append(chars, 0, Math.min(chars.length(), room));
+                } else {
+                    text.append(value);
+                }
+                if (maxExtrasLength > 0 && text.length() >= maxExtrasLength) {
+                    truncated = true;
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Unknown parcelables can't be unpacked in this process
+            PluginLog.d(TAG, "Unable to read extras: " + e.getMessage());
+            return;
+        }
+
+        if (truncated) {
+            text.setLength(maxExtrasLength);
+            writer.name("extras").value(text.toString());
+            writer.name("extrasTruncated").value(true);
+        } else {
+            writer.name("extras").value(text.append("}]").toString());
+        }
+    }
+
+    /**
+     * Write a field the way JSONObject.put would: null values are left out,
+     * numbers and booleans are written as such, anything else as a string
+     */
+    private static void field(PayloadWriter writer, String name, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        writer.name(name);
+        if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else {
+            writer.value(value.toString());
+        }
+    }
+}
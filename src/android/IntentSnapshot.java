@@ -0,0 +1,58 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Intent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serialized payloads of the activity intent, so getCordovaIntent only
+ * serializes (and queries clip item metadata) once per intent.
+ *
+ * Every time the activity intent changes, the version goes up and all
+ * payloads are dropped. One payload is kept per serializer configuration.
+ */
+public class IntentSnapshot {
+
+    private Intent intent;
+    private int version = 0;
+    private final Map<String, Object> payloads = new HashMap<>();
+
+    /**
+     * @param current the activity intent
+     * @return version of the current intent, starting at 1
+     */
+    public synchronized int getVersion(Intent current) {
+        if (current != intent) {
+            intent = current;
+            version++;
+            payloads.clear();
+        }
+        return version;
+    }
+
+    /**
+     * @param current the activity intent
+     * @param key serializer configuration, see {@link IntentSerializer#getCacheKey()}
+     * @return the cached payload, a JSON string or CBOR bytes, null if there
+     *         is none for this intent
+     */
+    public synchronized Object get(Intent current, String key) {
+        getVersion(current);
+        return payloads.get(key);
+    }
+
+    /**
+     * Cache a payload, ignored if the intent changed while it was serialized
+     *
+     * @param current the intent that was serialized
+     * @param version its version from {@link #getVersion(Intent)}
+     * @param key serializer configuration
+     * @param payload JSON string or CBOR bytes
+     */
+    public synchronized void put(Intent current, int version, String key, Object payload) {
+        if (current == intent && version == this.version) {
+            payloads.put(key, payload);
+        }
+    }
+}
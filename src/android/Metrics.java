@@ -0,0 +1,174 @@
+package com.betasoft.cordova.plugin.intent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the plugin's slow stages: provider
+ * queries, path resolution, copies, serialization and stream reads.
+ *
+ * Every stage is recorded under its own name and, when the source is a
+ * content URI, again as "stage:authority", so a slow provider stands out.
+ * Recording is lock-free; a stage is only allocated the first time it is
+ * seen.
+ *
+ * With tracing on, every recorded call is also an android.os.Trace section
+ * named "IntentPlugin.stage".
+ *
+ * Usage:
+ *
+ *   long started = Metrics.start("copy");
+ *   ... work ...
+ *   Metrics.record("copy", uri.getAuthority(), started, bytes, ok);
+ */
+public final class Metrics {
+
+    /**
+     * Upper bounds of the latency buckets in milliseconds, the last bucket
+     * counts everything slower
+     */
+    static final long[] BUCKET_BOUNDS_MS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    private static final ConcurrentHashMap<String, Stage> STAGES = new ConcurrentHashMap<>();
+    private static volatile long since = System.currentTimeMillis();
+    private static volatile boolean tracing = false;
+
+    private Metrics() {
+    }
+
+    private static final class Stage {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+
+        void record(long nanos, long byteCount, boolean ok) {
+            count.incrementAndGet();
+            if (!ok) {
+                errors.incrementAndGet();
+            }
+            if (byteCount > 0) {
+                bytes.addAndGet(byteCount);
+            }
+            totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry until we win or someone recorded a longer call
+            }
+            buckets.incrementAndGet(bucketOf(nanos / 1000000L));
+        }
+
+        JSONObject toJson() throws JSONException {
+            long n = count.get();
+            long total = totalNanos.get();
+            JSONObject json = new JSONObject();
+            json.put("count", n);
+            json.put("errors", errors.get());
+            json.put("bytes", bytes.get());
+            json.put("totalMs", total / 1000000.0);
+            json.put("meanMs", n > 0 ? total / 1000000.0 / n : 0);
+            json.put("maxMs", maxNanos.get() / 1000000.0);
+            if (total > 0 && bytes.get() > 0) {
+                json.put("bytesPerSecond", (long) (bytes.get() * 1000000000.0 / total));
+            }
+            JSONArray histogram = new JSONArray();
+            for (int i = 0; i < buckets.length(); i++) {
+                histogram.put(buckets.get(i));
+            }
+            json.put("histogram", histogram);
+            return json;
+        }
+    }
+
+    public static void setTracing(boolean enabled) {
+        tracing = enabled;
+    }
+
+    /**
+     * Start timing a call, opens a trace section if tracing is on
+     *
+     * @param stage
+     * @return start time to pass to {@link #record(String, String, long, long, boolean)}
+     */
+    public static long start(String stage) {
+        if (tracing) {
+            StartupTrace.beginSection("IntentPlugin." + stage);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a finished call, closes the trace section opened by
+     * {@link #start(String)}. Must be called on the same thread.
+     *
+     * @param stage
+     * @param authority provider authority, may be null
+     * @param startNanos from {@link #start(String)}
+     * @param bytes bytes moved by the call, 0 if not applicable
+     * @param ok false if the call failed
+     */
+    public static void record(String stage, String authority, long startNanos, long bytes, boolean ok) {
+        long nanos = System.nanoTime() - startNanos;
+        if (tracing) {
+            StartupTrace.endSection();
+        }
+        stage(stage).record(nanos, bytes, ok);
+        if (authority != null) {
+            stage(stage + ":" + authority).record(nanos, bytes, ok);
+        }
+    }
+
+    /**
+     * @return { since, bucketBoundsMs, stages: { name: { count, errors, bytes,
+     *         totalMs, meanMs, maxMs, bytesPerSecond, histogram } } }
+     */
+    public static JSONObject snapshot() throws JSONException {
+        JSONObject stages = new JSONObject();
+        for (Map.Entry<String, Stage> entry : STAGES.entrySet()) {
+            stages.put(entry.getKey(), entry.getValue().toJson());
+        }
+        JSONArray bounds = new JSONArray();
+        for (long bound : BUCKET_BOUNDS_MS) {
+            bounds.put(bound);
+        }
+        JSONObject json = new JSONObject();
+        json.put("since", since);
+        json.put("bucketBoundsMs", bounds);
+        json.put("stages", stages);
+        return json;
+    }
+
+    public static void reset() {
+        STAGES.clear();
+        since = System.currentTimeMillis();
+    }
+
+    private static Stage stage(String name) {
+        Stage stage = STAGES.get(name);
+        if (stage == null) {
+            Stage created = new Stage();
+            stage = STAGES.putIfAbsent(name, created);
+            if (stage == null) {
+                stage = created;
+            }
+        }
+        return stage;
+    }
+
+    private static int bucketOf(long millis) {
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            if (millis < BUCKET_BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MS.length;
+    }
+}
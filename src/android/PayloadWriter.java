@@ -0,0 +1,166 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.util.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+/**
+ * Streaming writer for bridge payloads, so the same serializer can write
+ * JSON text or compact CBOR. See {@link Json} and {@link CborWriter}.
+ */
+public abstract class PayloadWriter {
+
+    public abstract PayloadWriter beginObject() throws IOException;
+
+    public abstract PayloadWriter endObject() throws IOException;
+
+    public abstract PayloadWriter beginArray() throws IOException;
+
+    public abstract PayloadWriter endArray() throws IOException;
+
+    public abstract PayloadWriter name(String name) throws IOException;
+
+    public abstract PayloadWriter value(String value) throws IOException;
+
+    public abstract PayloadWriter value(long value) throws IOException;
+
+    public abstract PayloadWriter value(double value) throws IOException;
+
+    public abstract PayloadWriter value(boolean value) throws IOException;
+
+    public abstract PayloadWriter nullValue() throws IOException;
+
+    public PayloadWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return value(value.doubleValue());
+        }
+        return value(value.longValue());
+    }
+
+    /**
+     * Write a value from a JSONObject tree: objects, arrays, strings,
+     * numbers, booleans and null. Anything else is written as a string.
+     */
+    public PayloadWriter json(Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            return nullValue();
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            beginObject();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                name(key);
+                json(object.opt(key));
+            }
+            return endObject();
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                json(array.opt(i));
+            }
+            return endArray();
+        }
+        if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        }
+        if (value instanceof Number) {
+            return value((Number) value);
+        }
+        return value(value.toString());
+    }
+
+    /**
+     * JSON text, through android.util.JsonWriter
+     */
+    public static final class Json extends PayloadWriter {
+
+        private final StringWriter out = new StringWriter();
+        private final JsonWriter writer = new JsonWriter(out);
+
+        @Override
+        public PayloadWriter beginObject() throws IOException {
+            writer.beginObject();
+            return this;
+        }
+
+        @Override
+        public PayloadWriter endObject() throws IOException {
+            writer.endObject();
+            return this;
+        }
+
+        @Override
+        public PayloadWriter beginArray() throws IOException {
+            writer.beginArray();
+            return this;
+        }
+
+        @Override
+        public PayloadWriter endArray() throws IOException {
+            writer.endArray();
+            return this;
+        }
+
+        @Override
+        public PayloadWriter name(String name) throws IOException {
+            writer.name(name);
+            return this;
+        }
+
+        @Override
+        public PayloadWriter value(String value) throws IOException {
+            writer.value(value);
+            return this;
+        }
+
+        @Override
+        public PayloadWriter value(long value) throws IOException {
+            writer.value(value);
+            return this;
+        }
+
+        @Override
+        public PayloadWriter value(double value) throws IOException {
+            writer.value(value);
+            return this;
+        }
+
+        @Override
+        public PayloadWriter value(boolean value) throws IOException {
+            writer.value(value);
+            return this;
+        }
+
+        @Override
+        public PayloadWriter value(Number value) throws IOException {
+            writer.value(value);
+            return this;
+        }
+
+        @Override
+        public PayloadWriter nullValue() throws IOException {
+            writer.nullValue();
+            return this;
+        }
+
+        /**
+         * @return the JSON text written so far
+         */
+        public String finish() throws IOException {
+            writer.close();
+            return out.toString();
+        }
+    }
+}
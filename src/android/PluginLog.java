@@ -0,0 +1,73 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.util.Log;
+
+/**
+ * Level-gated logging for the plugin.
+ *
+ * Messages below the configured level are dropped before they reach
+ * android.util.Log. Callers that build expensive messages should check
+ * {@link #isLoggable(int)} first, so the message is not built at all.
+ *
+ * The level is set from the IntentPluginLogLevel preference: "verbose",
+ * "debug", "info", "warn" (default), "error" or "none".
+ */
+public final class PluginLog {
+
+    public static final int NONE = Log.ASSERT + 1;
+
+    private static volatile int level = Log.WARN;
+
+    private PluginLog() {
+    }
+
+    public static void setLevel(String name) {
+        if ("verbose".equalsIgnoreCase(name)) {
+            level = Log.VERBOSE;
+        } else if ("debug".equalsIgnoreCase(name)) {
+            level = Log.DEBUG;
+        } else if ("info".equalsIgnoreCase(name)) {
+            level = Log.INFO;
+        } else if ("error".equalsIgnoreCase(name)) {
+            level = Log.ERROR;
+        } else if ("none".equalsIgnoreCase(name)) {
+            level = NONE;
+        } else {
+            level = Log.WARN;
+        }
+    }
+
+    public static boolean isLoggable(int priority) {
+        return priority >= level;
+    }
+
+    public static void d(String tag, String message) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, String.valueOf(message));
+        }
+    }
+
+    public static void i(String tag, String message) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(tag, String.valueOf(message));
+        }
+    }
+
+    public static void w(String tag, String message) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, String.valueOf(message));
+        }
+    }
+
+    public static void e(String tag, String message) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, String.valueOf(message));
+        }
+    }
+
+    public static void e(String tag, String message, Throwable e) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, String.valueOf(message), e);
+        }
+    }
+}
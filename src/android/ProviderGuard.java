@@ -0,0 +1,459 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs ContentResolver queries and opens with a timeout, isolated per
+ * provider authority.
+ *
+ * Every authority has its own concurrency limit. The limit adapts to the
+ * latencies seen (AIMD): a fast call raises it by 1/limit, up to the
+ * configured maximum, and a call slower than slowMs or a timeout halves it,
+ * at most once per observed latency. A slow cloud provider ends up with few
+ * calls in flight and can't hold up the workers resolving local media.
+ *
+ * The call itself runs on a provider thread while the caller waits up to
+ * the timeout. On timeout the call's CancellationSignal is cancelled and the
+ * caller gets a {@link ProviderTimeoutException}; a call that still finishes
+ * later releases its slot and its result is closed. After `breakerThreshold`
+ * timeouts in a row the authority's breaker opens, and calls fail right away
+ * with a {@link ProviderUnavailableException} until the cooldown has passed.
+ * Then a single call is let through to probe the provider.
+ *
+ * Reading the opened stream is not timed, a large copy may take its time.
+ * Some providers download the whole file before an open returns (Google
+ * Drive), so opens on their authorities get the much longer download open
+ * timeout instead: a large file is not a provider that stopped answering.
+ */
+public final class ProviderGuard {
+
+    public static final long DEFAULT_QUERY_TIMEOUT_MS = 10000;
+    public static final long DEFAULT_OPEN_TIMEOUT_MS = 15000;
+    public static final long DEFAULT_DOWNLOAD_OPEN_TIMEOUT_MS = 10 * 60 * 1000L;
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    public static final long DEFAULT_SLOW_MS = 1000;
+    public static final int DEFAULT_BREAKER_THRESHOLD = 3;
+    public static final long DEFAULT_BREAKER_COOLDOWN_MS = 30000;
+
+    private static final String TAG = "ProviderGuard";
+    private static final String NO_AUTHORITY = "";
+
+    // Providers that download the file on open
+    private static final Set<String> DOWNLOAD_ON_OPEN = new HashSet<>(Arrays.asList(
+            "com.google.android.apps.docs.storage",
+            "com.google.android.apps.docs.storage.legacy"
+    ));
+
+    // States of a call, see call()
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(
+            new ActionScheduler.NamedThreadFactory("IntentPlugin-provider"));
+    private static final ConcurrentHashMap<String, Authority> AUTHORITIES = new ConcurrentHashMap<>();
+
+    private static volatile long queryTimeoutMs = DEFAULT_QUERY_TIMEOUT_MS;
+    private static volatile long openTimeoutMs = DEFAULT_OPEN_TIMEOUT_MS;
+    private static volatile long downloadOpenTimeoutMs = DEFAULT_DOWNLOAD_OPEN_TIMEOUT_MS;
+    private static volatile int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private static volatile long slowMs = DEFAULT_SLOW_MS;
+    private static volatile int breakerThreshold = DEFAULT_BREAKER_THRESHOLD;
+    private static volatile long breakerCooldownMs = DEFAULT_BREAKER_COOLDOWN_MS;
+
+    private ProviderGuard() {
+    }
+
+    /**
+     * A provider call, should pass the signal on to the resolver
+     */
+    public interface Call<T> {
+        T run(CancellationSignal signal) throws IOException;
+    }
+
+    /**
+     * The provider did not answer within the timeout
+     */
+    public static class ProviderTimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProviderTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The provider's breaker is open after repeated timeouts
+     */
+    public static class ProviderUnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProviderUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param queryTimeout timeout of queries in ms, 0 for none
+     * @param openTimeout timeout of opens in ms, 0 for none
+     * @param downloadOpenTimeout timeout of opens on providers that download on open, 0 for none
+     * @param concurrency most calls in flight per authority
+     * @param slow calls slower than this lower the authority's limit
+     * @param threshold timeouts in a row that open the breaker
+     * @param cooldown ms the breaker stays open
+     */
+    public static void configure(long queryTimeout, long openTimeout, long downloadOpenTimeout, int concurrency,
+                                 long slow, int threshold, long cooldown) {
+        queryTimeoutMs = Math.max(0, queryTimeout);
+        openTimeoutMs = Math.max(0, openTimeout);
+        downloadOpenTimeoutMs = Math.max(0, downloadOpenTimeout);
+        maxConcurrency = Math.max(1, concurrency);
+        slowMs = Math.max(1, slow);
+        breakerThreshold = Math.max(1, threshold);
+        breakerCooldownMs = Math.max(0, cooldown);
+    }
+
+    public static Cursor query(final ContentResolver resolver, final Uri uri, final String[] projection,
+                               final String selection, final String[] selectionArgs) throws IOException {
+        return call(uri, queryTimeoutMs, new Call<Cursor>() {
+            @Override
+            public Cursor run(CancellationSignal signal) {
+                return resolver.query(uri, projection, selection, selectionArgs, null, signal);
+            }
+        });
+    }
+
+    public static AssetFileDescriptor openAssetFileDescriptor(final ContentResolver resolver, final Uri uri,
+                                                              final String mode) throws IOException {
+        return call(uri, openTimeout(uri), new Call<AssetFileDescriptor>() {
+            @Override
+            public AssetFileDescriptor run(CancellationSignal signal) throws FileNotFoundException {
+                return resolver.openAssetFileDescriptor(uri, mode, signal);
+            }
+        });
+    }
+
+    public static ParcelFileDescriptor openFileDescriptor(final ContentResolver resolver, final Uri uri,
+                                                          final String mode) throws IOException {
+        return call(uri, openTimeout(uri), new Call<ParcelFileDescriptor>() {
+            @Override
+            public ParcelFileDescriptor run(CancellationSignal signal) throws FileNotFoundException {
+                return resolver.openFileDescriptor(uri, mode, signal);
+            }
+        });
+    }
+
+    public static InputStream openInputStream(final ContentResolver resolver, final Uri uri) throws IOException {
+        return call(uri, openTimeout(uri), new Call<InputStream>() {
+            @Override
+            public InputStream run(CancellationSignal signal) throws FileNotFoundException {
+                return resolver.openInputStream(uri);
+            }
+        });
+    }
+
+    /**
+     * Any other call that may block on a provider, e.g. loadThumbnail
+     */
+    public static <T> T open(Uri uri, Call<T> call) throws IOException {
+        return call(uri, openTimeout(uri), call);
+    }
+
+    /**
+     * @return { authority: { limit, inFlight, maxConcurrency, calls, failures,
+     *         timeouts, rejected, meanMs, breaker } } where breaker is
+     *         "closed", "open" or "half-open"
+     */
+    public static JSONObject getStats() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Authority> entry : AUTHORITIES.entrySet()) {
+            json.put(entry.getKey().isEmpty() ? "file" : entry.getKey(), entry.getValue().toJson());
+        }
+        return json;
+    }
+
+    private static long openTimeout(Uri uri) {
+        return DOWNLOAD_ON_OPEN.contains(uri.getAuthority()) ? downloadOpenTimeoutMs : openTimeoutMs;
+    }
+
+    private static <T> T call(Uri uri, long timeoutMs, final Call<T> call) throws IOException {
+        final Authority authority = authority(uri.getAuthority());
+        long deadline = timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : Long.MAX_VALUE;
+        final boolean probe = authority.acquire(deadline);
+
+        final CancellationSignal signal = new CancellationSignal();
+        final AtomicInteger state = new AtomicInteger(RUNNING);
+        final long started = System.nanoTime();
+        Future<T> future;
+        try {
+            future = POOL.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    boolean ok = false;
+                    T result = null;
+                    try {
+                        result = call.run(signal);
+                        ok = true;
+                        return result;
+                    } finally {
+                        boolean abandoned = !state.compareAndSet(RUNNING, DONE);
+                        authority.release(System.nanoTime() - started, ok, abandoned, probe);
+                        if (abandoned) {
+                            // The caller gave up waiting, nobody else will close it
+                            closeQuietly(result);
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            authority.release(0, false, true, probe);
+            throw e;
+        }
+
+        try {
+            long remaining = deadline - System.currentTimeMillis();
+            return timeoutMs > 0 ? future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            if (!state.compareAndSet(RUNNING, ABANDONED)) {
+                // Finished just now
+                return getDone(future);
+            }
+            signal.cancel();
+            authority.timedOut();
+            throw new ProviderTimeoutException(uri.getAuthority() + " did not answer within " + timeoutMs + "ms");
+        } catch (InterruptedException e) {
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                signal.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + uri.getAuthority());
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static <T> T getDone(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Rethrow what the call threw, so callers keep catching
+     * FileNotFoundException, SecurityException and the like
+     */
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static void closeQuietly(Object result) {
+        if (result instanceof Closeable) {
+            try {
+                ((Closeable) result).close();
+            } catch (IOException e) {
+                PluginLog.d(TAG, "Failed to close abandoned result: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Authority authority(String name) {
+        String key = name != null ? name : NO_AUTHORITY;
+        Authority authority = AUTHORITIES.get(key);
+        if (authority == null) {
+            Authority created = new Authority(key);
+            authority = AUTHORITIES.putIfAbsent(key, created);
+            if (authority == null) {
+                authority = created;
+            }
+        }
+        return authority;
+    }
+
+    private static final class Authority {
+        final String name;
+
+        double limit = maxConcurrency;
+        int inFlight = 0;
+        double meanMs = 0;
+        long lastDecrease = 0;
+
+        int consecutiveTimeouts = 0;
+        long openUntil = 0;
+        boolean halfOpen = false;
+        boolean probing = false;
+
+        long calls = 0;
+        long failures = 0;
+        long timeouts = 0;
+        long rejected = 0;
+
+        Authority(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Wait for a slot. Once the breaker's cooldown is over, the first
+         * caller to get a slot becomes the probe; the probe state is only
+         * set then, so a caller that gives up waiting can't leave it behind.
+         *
+         * @return true if the call is the half-open probe
+         */
+        synchronized boolean acquire(long deadline) throws IOException {
+            int max = maxConcurrency;
+            if (limit > max) {
+                limit = max;
+            }
+            for (;;) {
+                if (openUntil > 0 && (System.currentTimeMillis() < openUntil || probing)) {
+                    rejected++;
+                    throw new ProviderUnavailableException(name + " is not answering, retry later");
+                }
+                if (inFlight < (int) limit) {
+                    break;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    rejected++;
+                    throw new ProviderTimeoutException(name + " is busy, " + inFlight + " calls in flight");
+                }
+                try {
+                    wait(Math.min(remaining, 1000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + name);
+                }
+            }
+            boolean probe = openUntil > 0;
+            if (probe) {
+                halfOpen = true;
+                probing = true;
+            }
+            inFlight++;
+            calls++;
+            return probe;
+        }
+
+        /**
+         * @param abandoned the caller already gave up on the call, it says
+         *                  nothing about the provider being back
+         * @param probe the call was the half-open probe
+         */
+        synchronized void release(long nanos, boolean ok, boolean abandoned, boolean probe) {
+            inFlight--;
+            notifyAll();
+            double ms = nanos / 1000000.0;
+            if (abandoned) {
+                if (probe) {
+                    // A timed out probe has reopened the breaker already, an
+                    // interrupted one lets the next caller probe instead
+                    probing = false;
+                }
+                return;
+            }
+            if (!ok) {
+                failures++;
+            }
+            meanMs = meanMs == 0 ? ms : meanMs * 0.8 + ms * 0.2;
+            // The provider answered in time, even if with an error
+            consecutiveTimeouts = 0;
+            if (halfOpen) {
+                openUntil = 0;
+                halfOpen = false;
+                probing = false;
+                PluginLog.i(TAG, name + " answered again, breaker closed");
+            }
+            if (ms > slowMs) {
+                decrease();
+            } else if (limit < maxConcurrency) {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+            }
+        }
+
+        synchronized void timedOut() {
+            timeouts++;
+            consecutiveTimeouts++;
+            decrease();
+            if (halfOpen || consecutiveTimeouts >= breakerThreshold) {
+                openUntil = System.currentTimeMillis() + breakerCooldownMs;
+                halfOpen = false;
+                probing = false;
+                PluginLog.w(TAG, name + " timed out " + consecutiveTimeouts + " times, breaker open for "
+                        + breakerCooldownMs + "ms");
+            }
+        }
+
+        /**
+         * Halve the limit, at most once per mean latency so a burst of slow
+         * calls started at the same limit only counts once
+         */
+        private void decrease() {
+            long now = System.currentTimeMillis();
+            if (now - lastDecrease >= meanMs) {
+                limit = Math.max(1, limit / 2);
+                lastDecrease = now;
+            }
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("limit", (int) limit);
+            json.put("inFlight", inFlight);
+            json.put("maxConcurrency", maxConcurrency);
+            json.put("calls", calls);
+            json.put("failures", failures);
+            json.put("timeouts", timeouts);
+            json.put("rejected", rejected);
+            json.put("meanMs", meanMs);
+            String breaker = "closed";
+            if (halfOpen) {
+                breaker = "half-open";
+            } else if (openUntil > 0) {
+                breaker = System.currentTimeMillis() < openUntil ? "open" : "half-open";
+            }
+            json.put("breaker", breaker);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.betasoft.cordova.plugin.intent;
+
+import org.apache.cordova.PluginResult;
+
+/**
+ * Plugin result carrying JSON that is already serialized, so it reaches JS
+ * as an object without being parsed into a JSONObject tree first
+ */
+public class RawJsonResult extends PluginResult {
+
+    private final String json;
+
+    /**
+     * @param status
+     * @param json a serialized JSON object or array
+     */
+    public RawJsonResult(Status status, String json) {
+        super(status, json);
+        this.json = json;
+    }
+
+    @Override
+    public int getMessageType() {
+        return MESSAGE_TYPE_JSON;
+    }
+
+    @Override
+    public String getMessage() {
+        return json;
+    }
+}
@@ -0,0 +1,340 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded LRU of URI to resolved path, so resolving the same URI again
+ * skips the provider probes and copies of FileUtils.getPath.
+ *
+ * A cached path is only returned if it still checks out: the resolved file
+ * must exist with the size and modified time it had. If the path is a copy,
+ * the source must also still report the same SIZE and modified columns; a
+ * direct path is the source itself, so a hit on it costs no provider call.
+ * Misses go straight to FileUtils.getPath.
+ *
+ * The cache can be persisted to filesDir/path_cache.json, so warm starts
+ * skip resolution too. The index is written a few seconds after the last
+ * change, on a background thread.
+ */
+public class ResolvedPathCache {
+
+    private static final String TAG = "ResolvedPathCache";
+    private static final String INDEX_FILE = "path_cache.json";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final long SAVE_DELAY_MS = 2000;
+
+    private static ResolvedPathCache instance;
+
+    private final File indexFile;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private boolean persist = false;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(
+            new ActionScheduler.NamedThreadFactory("IntentPlugin-pathcache"));
+    private ScheduledFuture<?> pendingSave;
+
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            String index;
+            synchronized (ResolvedPathCache.this) {
+                pendingSave = null;
+                index = persist ? serialize() : null;
+            }
+            if (index != null) {
+                write(index);
+            }
+        }
+    };
+
+    static final class Entry {
+        final String path;
+        final long fileSize;
+        final long fileModified;
+        final boolean copy;
+        final long sourceSize;
+        final long sourceModified;
+
+        Entry(String path, long fileSize, long fileModified, boolean copy, long sourceSize, long sourceModified) {
+            this.path = path;
+            this.fileSize = fileSize;
+            this.fileModified = fileModified;
+            this.copy = copy;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+        }
+    }
+
+    public static synchronized ResolvedPathCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ResolvedPathCache(new File(context.getApplicationContext().getFilesDir(), INDEX_FILE));
+        }
+        return instance;
+    }
+
+    /**
+     * Write pending changes of the cache, if it was created at all
+     */
+    public static synchronized void flushInstance() {
+        if (instance != null) {
+            instance.flush();
+        }
+    }
+
+    private ResolvedPathCache(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @param maxEntries number of URIs kept
+     * @param persist keep the cache in an index file across restarts
+     */
+    public synchronized void configure(int maxEntries, boolean persist) {
+        this.maxEntries = Math.max(1, maxEntries);
+        boolean load = persist && !this.persist;
+        this.persist = persist;
+        if (load) {
+            load();
+        }
+        trim();
+    }
+
+    /**
+     * Resolve a URI through the cache
+     *
+     * @param fileUtils resolves and queries the source on a miss
+     * @param uri
+     * @return the resolved path, null if it can't be resolved
+     */
+    public String resolve(FileUtils fileUtils, Uri uri) {
+        final String key = uri.toString();
+
+        Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        if (cached != null && isValid(cached, fileUtils, uri)) {
+            synchronized (this) {
+                hits++;
+            }
+            StorageJanitor.recordAccess(cached.path);
+            return cached.path;
+        }
+
+        synchronized (this) {
+            misses++;
+            if (cached != null && entries.get(key) == cached) {
+                entries.remove(key);
+            }
+        }
+
+        String path = fileUtils.getPath(uri);
+        if (path != null) {
+            File file = new File(path);
+            if (file.isFile()) {
+                FileUtils.SourceInfo source = fileUtils.getCopiedSource();
+                Entry entry = source != null
+                        ? new Entry(path, file.length(), file.lastModified(), true, source.size, source.lastModified)
+                        : new Entry(path, file.length(), file.lastModified(), false, -1, 0);
+                synchronized (this) {
+                    entries.put(key, entry);
+                    trim();
+                    saveLater();
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Drop a URI from the cache
+     *
+     * @param uri URI to drop, null to drop everything
+     */
+    public synchronized void invalidate(String uri) {
+        if (uri == null) {
+            invalidations += entries.size();
+            entries.clear();
+        } else if (entries.remove(uri) != null) {
+            invalidations++;
+        }
+        saveLater();
+    }
+
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        long lookups = hits + misses;
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", lookups == 0 ? 0 : (double) hits / lookups);
+        stats.put("invalidations", invalidations);
+        stats.put("entries", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("persisted", persist);
+        return stats;
+    }
+
+    private static boolean isValid(Entry entry, FileUtils fileUtils, Uri uri) {
+        File file = new File(entry.path);
+        if (!file.isFile() || file.length() != entry.fileSize || file.lastModified() != entry.fileModified) {
+            return false;
+        }
+        if (!entry.copy) {
+            return true;
+        }
+        FileUtils.SourceInfo source = querySource(fileUtils, uri);
+        return source.size == entry.sourceSize && source.lastModified == entry.sourceModified;
+    }
+
+    private static FileUtils.SourceInfo querySource(FileUtils fileUtils, Uri uri) {
+        if ("file".equalsIgnoreCase(uri.getScheme()) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            FileUtils.SourceInfo info = new FileUtils.SourceInfo();
+            info.name = file.getName();
+            info.size = file.exists() ? file.length() : -1;
+            info.lastModified = file.lastModified();
+            return info;
+        }
+        return fileUtils.querySourceInfo(uri);
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void load() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try {
+            byte[] bytes = new byte[(int) indexFile.length()];
+            InputStream in = new FileInputStream(indexFile);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+
+            JSONArray array = new JSONArray(new String(bytes, UTF8));
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject json = array.getJSONObject(i);
+                entries.put(json.getString("uri"), new Entry(json.getString("path"),
+                        json.getLong("fileSize"), json.getLong("fileModified"), json.optBoolean("copy", true),
+                        json.getLong("sourceSize"), json.getLong("sourceModified")));
+            }
+        } catch (Exception e) {
+            PluginLog.w(TAG, "Discarding unreadable path cache index: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Write the index once no change came in for {@link #SAVE_DELAY_MS}, if
+     * persistence is on. Must hold the lock.
+     */
+    private void saveLater() {
+        if (persist && pendingSave == null) {
+            submitSave(SAVE_DELAY_MS);
+        }
+    }
+
+    /**
+     * Write pending changes now, e.g. when the app is paused. Doesn't wait
+     * for the write.
+     */
+    public synchronized void flush() {
+        if (pendingSave != null && pendingSave.cancel(false)) {
+            pendingSave = null;
+            submitSave(0);
+        }
+    }
+
+    private void submitSave(long delayMs) {
+        try {
+            pendingSave = saver.schedule(saveTask, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            PluginLog.w(TAG, "Unable to schedule path cache index write: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the index in LRU order, must hold the lock
+     */
+    private String serialize() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                JSONObject json = new JSONObject();
+                json.put("uri", mapEntry.getKey());
+                json.put("path", entry.path);
+                json.put("fileSize", entry.fileSize);
+                json.put("fileModified", entry.fileModified);
+                json.put("copy", entry.copy);
+                json.put("sourceSize", entry.sourceSize);
+                json.put("sourceModified", entry.sourceModified);
+                array.put(json);
+            }
+            return array.toString();
+        } catch (JSONException e) {
+            PluginLog.w(TAG, "Unable to write path cache index: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the index through a temp file, only called on the saver thread
+     */
+    private void write(String index) {
+        try {
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(index.getBytes(UTF8));
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(indexFile)) {
+                PluginLog.w(TAG, "Unable to write path cache index");
+            }
+        } catch (Exception e) {
+            PluginLog.w(TAG, "Unable to write path cache index: " + e.getMessage());
+        }
+    }
+}
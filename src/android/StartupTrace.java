@@ -0,0 +1,79 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.os.Build;
+import android.os.Trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Timings of plugin startup, sent by getStartupTrace. The same phases are
+ * marked as android.os.Trace sections, so they show up in systrace and
+ * Perfetto captures of a cold start.
+ *
+ *  - initMs: time spent in pluginInitialize, on the main thread
+ *  - backgroundInitMs: cache and janitor setup moved off the main thread
+ *  - bootPayloadMs: serializing the launch intent ahead of the handler
+ *  - handlerRegisteredMs: from pluginInitialize to the first setNewIntentHandler
+ *
+ * Phases that did not happen (yet) are -1.
+ */
+public class StartupTrace {
+
+    private final long createdNanos = System.nanoTime();
+
+    private volatile double initMs = -1;
+    private volatile double backgroundInitMs = -1;
+    private volatile double bootPayloadMs = -1;
+    private volatile double handlerRegisteredMs = -1;
+
+    static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    public long now() {
+        return System.nanoTime();
+    }
+
+    public void recordInit(long startNanos) {
+        initMs = since(startNanos);
+    }
+
+    public void recordBackgroundInit(long startNanos) {
+        backgroundInitMs = since(startNanos);
+    }
+
+    public void recordBootPayload(long startNanos) {
+        bootPayloadMs = since(startNanos);
+    }
+
+    /**
+     * Only the first registration is recorded
+     */
+    public void recordHandlerRegistered() {
+        if (handlerRegisteredMs < 0) {
+            handlerRegisteredMs = since(createdNanos);
+        }
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("initMs", initMs);
+        json.put("backgroundInitMs", backgroundInitMs);
+        json.put("bootPayloadMs", bootPayloadMs);
+        json.put("handlerRegisteredMs", handlerRegisteredMs);
+        return json;
+    }
+
+    private static double since(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000.0;
+    }
+}
@@ -0,0 +1,367 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the folders that FileUtils copies into from growing without bound.
+ *
+ * Each managed folder (filesDir/upload_part, filesDir/whatsapp and
+ * cacheDir/drive) has a byte quota. A sweep deletes files that were not used
+ * for longer than the maximum age, then the least recently used files until
+ * the folder fits its quota. A file counts as used when it was copied or
+ * handed out again by CopyCache or ResolvedPathCache.
+ *
+ * Copies indexed by CopyCache are left to its own budget and only count
+ * towards the quota; the quota evicts what CopyCache doesn't track (Drive
+ * copies, copies of unknown size, leftovers). The newest file of a folder
+ * and files used within {@link #IN_USE_MS} are never evicted for the quota,
+ * the app may still be reading them.
+ *
+ * Sweeps run on one background-priority thread. The folders are walked a few
+ * entries at a time with a short pause in between, so a sweep never holds
+ * the disk for long.
+ */
+public class StorageJanitor {
+
+    public static final long DEFAULT_QUOTA_BYTES = 512L * 1024 * 1024;
+    public static final int DEFAULT_MAX_AGE_HOURS = 7 * 24;
+    public static final int DEFAULT_SWEEP_MINUTES = 60;
+
+    private static final String TAG = "StorageJanitor";
+    private static final long INITIAL_DELAY_MS = 30 * 1000;
+    private static final int STEP_ENTRIES = 64;
+    private static final long STEP_DELAY_MS = 10;
+    // A .part file this recent is probably still being written
+    private static final long PART_GRACE_MS = 10 * 60 * 1000;
+    // A file used this recently may still be read by the app
+    static final long IN_USE_MS = 10 * 60 * 1000;
+
+    /**
+     * Last use of a copy by path, in memory only. Falls back to the
+     * modified time of the file after a restart.
+     */
+    private static final ConcurrentHashMap<String, Long> LAST_ACCESS = new ConcurrentHashMap<>();
+
+    /**
+     * Record that a copy was handed out again
+     */
+    static void recordAccess(String path) {
+        LAST_ACCESS.put(path, System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if the file was handed out within {@link #IN_USE_MS}
+     */
+    static boolean isInUse(String path, long now) {
+        Long accessed = LAST_ACCESS.get(path);
+        return accessed != null && now - accessed < IN_USE_MS;
+    }
+
+    private static final class Folder {
+        final String name;
+        final File root;
+        long bytes;
+        int files;
+        Candidate newest;
+
+        Folder(String name, File root) {
+            this.name = name;
+            this.root = root;
+        }
+    }
+
+    private static final class Candidate {
+        final Folder folder;
+        final File file;
+        final long bytes;
+        final long lastUsed;
+
+        Candidate(Folder folder, File file, long bytes, long lastUsed) {
+            this.folder = folder;
+            this.file = file;
+            this.bytes = bytes;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final class Pending {
+        final Folder folder;
+        final File file;
+
+        Pending(Folder folder, File file) {
+            this.folder = folder;
+            this.file = file;
+        }
+    }
+
+    private final Context context;
+    private final List<Folder> folders = new ArrayList<>();
+    private final long quotaBytes;
+    private final long maxAgeMs;
+    private final long intervalMs;
+    private final ScheduledExecutorService executor;
+
+    // Sweep state, only touched on the janitor thread
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final List<Candidate> candidates = new ArrayList<>();
+    private final Set<String> seen = new HashSet<>();
+    private long sweepStarted;
+
+    // Stats, guarded by this
+    private long sweeps = 0;
+    private long deletedFiles = 0;
+    private long deletedBytes = 0;
+    private long lastSweepMs = -1;
+    private long lastSweepAt = 0;
+    private boolean running = false;
+
+    /**
+     * @param context application context
+     * @param quotaBytes byte quota of each folder
+     * @param maxAgeHours files unused for longer are deleted, 0 disables age eviction
+     * @param sweepMinutes time between sweeps, 0 disables background sweeps
+     */
+    public StorageJanitor(Context context, long quotaBytes, int maxAgeHours, int sweepMinutes) {
+        this.context = context;
+        this.quotaBytes = Math.max(0, quotaBytes);
+        this.maxAgeMs = Math.max(0, maxAgeHours) * 3600L * 1000;
+        this.intervalMs = Math.max(0, sweepMinutes) * 60L * 1000;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ActionScheduler.NamedThreadFactory("IntentPlugin-janitor"));
+    }
+
+    /**
+     * Schedule background sweeps, the first one runs shortly after startup.
+     * Looks up the app folders, so it should not be called on the main thread.
+     */
+    public void start() {
+        synchronized (this) {
+            folders.add(new Folder(FileUtils.FALLBACK_COPY_FOLDER, new File(context.getFilesDir(), FileUtils.FALLBACK_COPY_FOLDER)));
+            folders.add(new Folder(FileUtils.WHATSAPP_COPY_FOLDER, new File(context.getFilesDir(), FileUtils.WHATSAPP_COPY_FOLDER)));
+            folders.add(new Folder(FileUtils.DRIVE_COPY_FOLDER, new File(context.getCacheDir(), FileUtils.DRIVE_COPY_FOLDER)));
+        }
+        if (intervalMs > 0) {
+            schedule(INITIAL_DELAY_MS);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return { sweeps, running, lastSweepMs, lastSweepAt, deletedFiles,
+     *         deletedBytes, quotaBytes, maxAgeHours, folders: [{ name, path, bytes, files }] }
+     *         where folder sizes are as of the last sweep
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("sweeps", sweeps);
+        stats.put("running", running);
+        stats.put("lastSweepMs", lastSweepMs);
+        stats.put("lastSweepAt", lastSweepAt);
+        stats.put("deletedFiles", deletedFiles);
+        stats.put("deletedBytes", deletedBytes);
+        stats.put("quotaBytes", quotaBytes);
+        stats.put("maxAgeHours", maxAgeMs / 3600000L);
+        JSONArray list = new JSONArray();
+        for (Folder folder : folders) {
+            JSONObject json = new JSONObject();
+            json.put("name", folder.name);
+            json.put("path", folder.root.getPath());
+            json.put("bytes", folder.bytes);
+            json.put("files", folder.files);
+            list.put(json);
+        }
+        stats.put("folders", list);
+        return stats;
+    }
+
+    private void schedule(long delayMs) {
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    beginSweep();
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            PluginLog.d(TAG, "Janitor stopped: " + e.getMessage());
+        }
+    }
+
+    private void beginSweep() {
+        synchronized (this) {
+            running = true;
+        }
+        sweepStarted = SystemClock.elapsedRealtime();
+        pending.clear();
+        candidates.clear();
+        seen.clear();
+        for (Folder folder : folders) {
+            if (folder.root.isDirectory()) {
+                listInto(folder, folder.root);
+            }
+        }
+        step();
+    }
+
+    /**
+     * Stat the next few entries, then yield the thread until the next step
+     */
+    private void step() {
+        for (int i = 0; i < STEP_ENTRIES && !pending.isEmpty(); i++) {
+            Pending next = pending.poll();
+            File file = next.file;
+            if (file.isDirectory()) {
+                listInto(next.folder, file);
+                continue;
+            }
+            String path = file.getPath();
+            seen.add(path);
+            Long accessed = LAST_ACCESS.get(path);
+            long lastUsed = Math.max(file.lastModified(), accessed != null ? accessed : 0);
+            candidates.add(new Candidate(next.folder, file, file.length(), lastUsed));
+        }
+
+        if (!pending.isEmpty()) {
+            try {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        step();
+                    }
+                }, STEP_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                PluginLog.d(TAG, "Janitor stopped: " + e.getMessage());
+            }
+            return;
+        }
+        finishSweep();
+    }
+
+    private void listInto(Folder folder, File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        if (children.length == 0 && !dir.equals(folder.root)
+                && System.currentTimeMillis() - dir.lastModified() > PART_GRACE_MS) {
+            // Leftover collision-avoidance folder
+            dir.delete();
+            return;
+        }
+        for (File child : children) {
+            pending.add(new Pending(folder, child));
+        }
+    }
+
+    /**
+     * Evict and publish the folder sizes, holds the lock so getStats never
+     * sees a half-updated folder
+     */
+    private synchronized void finishSweep() {
+        long now = System.currentTimeMillis();
+        long removedFiles = 0;
+        long removedBytes = 0;
+
+        for (Folder folder : folders) {
+            folder.bytes = 0;
+            folder.files = 0;
+            folder.newest = null;
+        }
+
+        // Least recently used first
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return Long.compare(a.lastUsed, b.lastUsed);
+            }
+        });
+
+        List<Candidate> kept = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (maxAgeMs > 0 && now - candidate.lastUsed > maxAgeMs && delete(candidate)) {
+                removedFiles++;
+                removedBytes += candidate.bytes;
+            } else {
+                kept.add(candidate);
+                candidate.folder.bytes += candidate.bytes;
+                candidate.folder.files++;
+                candidate.folder.newest = candidate;
+            }
+        }
+
+        Set<String> cached = CopyCache.getInstance(context).getPaths();
+        for (Candidate candidate : kept) {
+            Folder folder = candidate.folder;
+            if (folder.bytes <= quotaBytes) {
+                continue;
+            }
+            // Recent files include .part files still being written
+            if (candidate == folder.newest || now - candidate.lastUsed < IN_USE_MS
+                    || cached.contains(candidate.file.getPath())) {
+                continue;
+            }
+            if (delete(candidate)) {
+                folder.bytes -= candidate.bytes;
+                folder.files--;
+                removedFiles++;
+                removedBytes += candidate.bytes;
+            }
+        }
+
+        LAST_ACCESS.keySet().retainAll(seen);
+        candidates.clear();
+        seen.clear();
+
+        long duration = SystemClock.elapsedRealtime() - sweepStarted;
+        sweeps++;
+        deletedFiles += removedFiles;
+        deletedBytes += removedBytes;
+        lastSweepMs = duration;
+        lastSweepAt = now;
+        running = false;
+        PluginLog.d(TAG, "Sweep took " + duration + " ms, deleted " + removedFiles + " files (" + removedBytes + " bytes)");
+
+        if (intervalMs > 0) {
+            schedule(intervalMs);
+        }
+    }
+
+    private boolean delete(Candidate candidate) {
+        File file = candidate.file;
+        if (!file.delete()) {
+            PluginLog.w(TAG, "Unable to delete " + file.getPath());
+            return false;
+        }
+        String path = file.getPath();
+        LAST_ACCESS.remove(path);
+        CopyCache.getInstance(context).forget(path);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.equals(candidate.folder.root)) {
+            String[] children = parent.list();
+            if (children != null && children.length == 0) {
+                parent.delete();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,485 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open read streams on content URIs, so JS can read a file in chunks
+ * straight from the provider instead of copying it to internal storage first.
+ *
+ * File-backed sources are read with positional FileChannel reads, so any
+ * offset can be served. Other sources are read sequentially: reading forward
+ * skips, reading backwards reopens the stream.
+ *
+ * After every chunk, the following chunks of the same length are read ahead
+ * in the background, up to the read-ahead window. At most
+ * window x chunk length bytes are buffered per stream. Sequential sources
+ * read ahead one chunk at a time, in order, so read-ahead never has to
+ * reopen them.
+ *
+ * Streams nobody has read for the idle timeout are closed, so a page that
+ * forgets to close its streams doesn't keep their descriptors or slots.
+ */
+public class StreamRegistry {
+
+    public static final int MAX_CHUNK_LENGTH = 4 * 1024 * 1024;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000L;
+
+    private static final String TAG = "StreamRegistry";
+
+    private final ContentResolver resolver;
+    private final int maxOpenStreams;
+    private final int readAheadWindow;
+    private final long idleTimeoutMs;
+    private final ExecutorService prefetchPool;
+    private final ScheduledExecutorService idleTimer;
+    private ScheduledFuture<?> idleSweep;
+    private final AtomicInteger nextHandle = new AtomicInteger();
+    // Streams open or being opened, counted apart from the map so the limit is checked atomically
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * @param resolver
+     * @param maxOpenStreams open streams allowed at the same time
+     * @param readAheadWindow chunks read ahead per stream, 0 disables read-ahead
+     * @param idleTimeoutMs streams not read for this long are closed, 0 keeps them open
+     */
+    public StreamRegistry(ContentResolver resolver, int maxOpenStreams, int readAheadWindow, long idleTimeoutMs) {
+        this.resolver = resolver;
+        this.maxOpenStreams = Math.max(1, maxOpenStreams);
+        this.readAheadWindow = Math.max(0, readAheadWindow);
+        this.idleTimeoutMs = Math.max(0, idleTimeoutMs);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ActionScheduler.NamedThreadFactory("IntentPlugin-stream"));
+        executor.allowCoreThreadTimeOut(true);
+        this.prefetchPool = executor;
+        this.idleTimer = Executors.newSingleThreadScheduledExecutor(new ActionScheduler.NamedThreadFactory("IntentPlugin-stream-idle"));
+    }
+
+    /**
+     * Open a stream
+     *
+     * @return handle to pass to {@link #read(int, long, int)} and {@link #close(int)}
+     * @throws IOException if the URI can't be opened or too many streams are open
+     */
+    public int open(Uri uri) throws IOException {
+        int open;
+        do {
+            open = openCount.get();
+            if (open >= maxOpenStreams) {
+                throw new IOException("Too many open streams (" + maxOpenStreams + ")");
+            }
+        } while (!openCount.compareAndSet(open, open + 1));
+
+        Stream stream = new Stream(uri);
+        boolean opened = false;
+        try {
+            stream.reopen();
+            opened = true;
+        } finally {
+            if (!opened) {
+                stream.close();
+                openCount.decrementAndGet();
+            }
+        }
+        int handle = nextHandle.incrementAndGet();
+        streams.put(handle, stream);
+        startIdleSweep();
+        return handle;
+    }
+
+    /**
+     * @return size of the stream in bytes, -1 if unknown
+     */
+    public long getSize(int handle) throws IOException {
+        return get(handle).size;
+    }
+
+    /**
+     * Read a chunk. Returns fewer than length bytes only at the end of the
+     * stream, and an empty array past it.
+     */
+    public byte[] read(final int handle, long offset, int length) throws IOException {
+        if (offset < 0 || length <= 0 || length > MAX_CHUNK_LENGTH) {
+            throw new IOException("Invalid chunk: offset " + offset + ", length " + length);
+        }
+
+        final Stream stream = get(handle);
+        stream.lastUsed = System.currentTimeMillis();
+        long started = Metrics.start("readChunk");
+        Future<byte[]> prefetched = null;
+        synchronized (stream.prefetched) {
+            if (stream.prefetchLength == length) {
+                prefetched = stream.prefetched.remove(offset);
+            }
+        }
+
+        byte[] chunk = null;
+        if (prefetched != null) {
+            try {
+                chunk = prefetched.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Metrics.record("readChunk", stream.uri.getAuthority(), started, 0, false);
+                throw new IOException("Interrupted while reading " + stream.uri);
+            } catch (ExecutionException e) {
+                PluginLog.d(TAG, "Read-ahead failed, reading again: " + e.getCause());
+            }
+        }
+        if (chunk == null) {
+            try {
+                chunk = stream.read(offset, length);
+            } catch (IOException e) {
+                Metrics.record("readChunk", stream.uri.getAuthority(), started, 0, false);
+                throw e;
+            }
+        }
+        Metrics.record("readChunk", stream.uri.getAuthority(), started, chunk.length, true);
+
+        if (chunk.length == length) {
+            scheduleReadAhead(stream, offset + length, length);
+        }
+        stream.lastUsed = System.currentTimeMillis();
+        return chunk;
+    }
+
+    public void close(int handle) {
+        Stream stream = streams.remove(handle);
+        if (stream != null) {
+            stream.close();
+            openCount.decrementAndGet();
+        }
+    }
+
+    public void closeAll() {
+        for (Integer handle : streams.keySet()) {
+            close(handle);
+        }
+    }
+
+    public void shutdown() {
+        idleTimer.shutdownNow();
+        closeAll();
+        prefetchPool.shutdownNow();
+    }
+
+    /**
+     * Check for idle streams every quarter of the timeout, from the first open on
+     */
+    private synchronized void startIdleSweep() {
+        if (idleSweep != null || idleTimeoutMs == 0) {
+            return;
+        }
+        long period = Math.max(1000, idleTimeoutMs / 4);
+        try {
+            idleSweep = idleTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    closeIdle();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            PluginLog.d(TAG, "Registry shut down, no idle sweep");
+        }
+    }
+
+    /**
+     * Close streams that have not been read for the idle timeout
+     *
+     * @return number of streams closed
+     */
+    int closeIdle() {
+        long idleSince = System.currentTimeMillis() - idleTimeoutMs;
+        int closed = 0;
+        for (Map.Entry<Integer, Stream> entry : streams.entrySet()) {
+            if (entry.getValue().lastUsed < idleSince && streams.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
+                openCount.decrementAndGet();
+                closed++;
+                PluginLog.d(TAG, "Closed idle stream " + entry.getKey() + " on " + entry.getValue().uri);
+            }
+        }
+        return closed;
+    }
+
+    private Stream get(int handle) throws IOException {
+        Stream stream = streams.get(handle);
+        if (stream == null) {
+            throw new IOException("Unknown stream handle " + handle);
+        }
+        return stream;
+    }
+
+    /**
+     * Keep the next chunks of the same length in flight, and drop read-ahead
+     * chunks that are behind the reader. Changing the chunk length drops all
+     * read-ahead chunks.
+     */
+    private void scheduleReadAhead(final Stream stream, long from, final int length) {
+        synchronized (stream.prefetched) {
+            if (stream.prefetchLength != length) {
+                stream.cancelPrefetch();
+                stream.prefetchLength = length;
+            }
+
+            Iterator<Map.Entry<Long, Future<byte[]>>> it = stream.prefetched.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Future<byte[]>> entry = it.next();
+                if (entry.getKey() < from) {
+                    if (entry.getValue() == stream.readingAhead) {
+                        stream.readingAhead = null;
+                    }
+                    entry.getValue().cancel(false);
+                    it.remove();
+                }
+            }
+            stream.prefetchFrom = from;
+            fillWindow(stream);
+        }
+    }
+
+    /**
+     * Start reading the missing chunks of the window. A sequential source
+     * gets one chunk at a time, lowest offset first, and the next one is
+     * started when it is done: two chunks read out of order would make the
+     * earlier one reopen the source and skip from the start again.
+     *
+     * Must be called with the prefetched map locked.
+     */
+    private void fillWindow(final Stream stream) {
+        if (stream.closed) {
+            return;
+        }
+        final int length = stream.prefetchLength;
+        for (int i = 0; i < readAheadWindow; i++) {
+            final long offset = stream.prefetchFrom + (long) i * length;
+            if (stream.size >= 0 && offset >= stream.size) {
+                break;
+            }
+            if (stream.prefetched.containsKey(offset)) {
+                continue;
+            }
+            if (stream.prefetched.size() >= readAheadWindow || (!stream.seekable && stream.readingAhead != null)) {
+                break;
+            }
+            FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return stream.readAhead(offset, length);
+                }
+            }) {
+                @Override
+                protected void done() {
+                    readAheadDone(stream, this);
+                }
+            };
+            try {
+                prefetchPool.execute(task);
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+            stream.prefetched.put(offset, task);
+            if (!stream.seekable) {
+                stream.readingAhead = task;
+                break;
+            }
+        }
+    }
+
+    private void readAheadDone(Stream stream, Future<byte[]> task) {
+        synchronized (stream.prefetched) {
+            if (stream.readingAhead == task) {
+                stream.readingAhead = null;
+                fillWindow(stream);
+            }
+        }
+    }
+
+    /**
+     * One open stream. Reads are serialized on the stream.
+     */
+    private final class Stream {
+        final Uri uri;
+        final Map<Long, Future<byte[]>> prefetched = new HashMap<>();
+        int prefetchLength = 0;
+        long prefetchFrom;
+        // Read-ahead chunk in flight on a sequential source
+        Future<byte[]> readingAhead;
+        volatile long size = -1;
+        volatile boolean seekable;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        private AssetFileDescriptor descriptor;
+        private FileChannel channel;
+        private long channelStart;
+        private InputStream input;
+        private long position;
+        private volatile boolean closed;
+
+        Stream(Uri uri) {
+            this.uri = uri;
+        }
+
+        synchronized void reopen() throws IOException {
+            closeSource();
+            AssetFileDescriptor afd = null;
+            try {
+                afd = ProviderGuard.openAssetFileDescriptor(resolver, uri, "r");
+            } catch (ProviderGuard.ProviderTimeoutException | ProviderGuard.ProviderUnavailableException e) {
+                throw e;
+            } catch (IOException | SecurityException e) {
+                PluginLog.d(TAG, "No file descriptor for " + uri + ": " + e.getMessage());
+            }
+
+            if (afd != null) {
+                long length = afd.getLength();
+                if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    long statSize = afd.getParcelFileDescriptor().getStatSize();
+                    length = statSize >= 0 ? statSize - afd.getStartOffset() : -1;
+                }
+                // Assigned first, so closeSource closes it if createInputStream throws
+                descriptor = afd;
+                FileInputStream in = afd.createInputStream();
+                if (length >= 0) {
+                    channel = in.getChannel();
+                    channelStart = afd.getStartOffset();
+                } else {
+                    input = in;
+                }
+                size = length;
+                seekable = length >= 0;
+            } else {
+                input = ProviderGuard.openInputStream(resolver, uri);
+                if (input == null) {
+                    throw new IOException("Unable to open " + uri);
+                }
+            }
+            position = 0;
+        }
+
+        /**
+         * Read a chunk ahead of the reader. A sequential source that has
+         * already moved past the offset is not reopened for it.
+         *
+         * @return the chunk, null if the reader got past it first
+         */
+        synchronized byte[] readAhead(long offset, int length) throws IOException {
+            if (channel == null && offset < position) {
+                return null;
+            }
+            return read(offset, length);
+        }
+
+        synchronized byte[] read(long offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (channel != null) {
+                return readChannel(offset, length);
+            }
+            if (offset < position) {
+                reopen();
+            }
+            while (position < offset) {
+                long skipped = input.skip(offset - position);
+                if (skipped <= 0) {
+                    // skip() may stop early on pipes, a read tells us if the stream has ended
+                    if (input.read() == -1) {
+                        return new byte[0];
+                    }
+                    skipped = 1;
+                }
+                position += skipped;
+            }
+
+            byte[] buffer = new byte[length];
+            int filled = 0;
+            int read;
+            while (filled < length && (read = input.read(buffer, filled, length - filled)) != -1) {
+                filled += read;
+            }
+            position += filled;
+            return filled == length ? buffer : Arrays.copyOf(buffer, filled);
+        }
+
+        private byte[] readChannel(long offset, int length) throws IOException {
+            if (offset >= size) {
+                return new byte[0];
+            }
+            int wanted = (int) Math.min(length, size - offset);
+            ByteBuffer buffer = ByteBuffer.allocate(wanted);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, channelStart + offset + buffer.position()) == -1) {
+                    break;
+                }
+            }
+            return buffer.position() == wanted ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+
+        /**
+         * Must be called with the prefetched map locked
+         */
+        void cancelPrefetch() {
+            readingAhead = null;
+            for (Future<byte[]> future : prefetched.values()) {
+                future.cancel(false);
+            }
+            prefetched.clear();
+        }
+
+        void close() {
+            synchronized (prefetched) {
+                cancelPrefetch();
+            }
+            synchronized (this) {
+                closed = true;
+                closeSource();
+            }
+        }
+
+        private void closeSource() {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+                if (channel != null) {
+                    channel.close();
+                }
+                if (descriptor != null) {
+                    descriptor.close();
+                }
+            } catch (IOException e) {
+                PluginLog.d(TAG, "Error closing " + uri + ": " + e.getMessage());
+            }
+            input = null;
+            channel = null;
+            descriptor = null;
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.util.Base64;
+import android.util.LruCache;
+import android.util.Size;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small previews of shared media, without copying or fully decoding the
+ * source.
+ *
+ * On Android 10 and up the provider's own thumbnail is used when it has one.
+ * Otherwise the image bounds are read first and the image is decoded with a
+ * power of two inSampleSize, so a 12 MP photo is never held in memory at full
+ * size. The result is scaled to fit maxPx and encoded.
+ *
+ * Encoded thumbnails are kept in two LRU caches, keyed by URI, source size,
+ * last-modified time and the requested size and format: a small in-memory
+ * cache for inline results and a size-capped folder in cacheDir/thumbnails.
+ *
+ * Like {@link BatchResolver}, a batch is worked by a bounded number of
+ * threads and each result is streamed back as soon as it is ready:
+ *
+ *   { "index": 0, "uri": "content://...", "path": "/data/...", "width": 256, "height": 192, "cached": false }
+ *   { "index": 1, "uri": "content://...", "error": "..." }
+ *
+ * followed by { "done": true, "total": 2, "generated": 1, "failed": 1 }.
+ */
+public class Thumbnailer {
+
+    private static final String TAG = "Thumbnailer";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final String FOLDER = "thumbnails";
+    public static final int DEFAULT_MAX_PX = 256;
+    public static final int DEFAULT_QUALITY = 80;
+    public static final int DEFAULT_MEMORY_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_DISK_BYTES = 32L * 1024 * 1024;
+
+    private static final int MIN_PX = 16;
+    private static final int MAX_PX = 1024;
+
+    private final Context context;
+    private final ExecutorService pool;
+    private final int maxConcurrency;
+    private final File dir;
+    private final long maxDiskBytes;
+    private final LruCache<String, Thumbnail> memory;
+
+    // Files in the disk cache by key, least recently used first
+    private LinkedHashMap<String, File> disk;
+    private long diskBytes = 0;
+
+    /**
+     * Requested size and encoding of a batch
+     */
+    public static final class Spec {
+        final int maxPx;
+        final Bitmap.CompressFormat format;
+        final String extension;
+        final int quality;
+        final boolean inline;
+
+        /**
+         * @param options { maxPx, format: "jpeg" | "png" | "webp", quality, inline }, may be null
+         */
+        public Spec(JSONObject options) {
+            int px = options != null ? options.optInt("maxPx", DEFAULT_MAX_PX) : DEFAULT_MAX_PX;
+            maxPx = Math.max(MIN_PX, Math.min(MAX_PX, px));
+            String name = options != null ? options.optString("format", "jpeg") : "jpeg";
+            if ("png".equalsIgnoreCase(name)) {
+                format = Bitmap.CompressFormat.PNG;
+                extension = "png";
+            } else if ("webp".equalsIgnoreCase(name)) {
+                format = webp();
+                extension = "webp";
+            } else if ("jpeg".equalsIgnoreCase(name) || "jpg".equalsIgnoreCase(name)) {
+                format = Bitmap.CompressFormat.JPEG;
+                extension = "jpg";
+            } else {
+                throw new IllegalArgumentException("Unknown thumbnail format " + name);
+            }
+            int q = options != null ? options.optInt("quality", DEFAULT_QUALITY) : DEFAULT_QUALITY;
+            quality = Math.max(0, Math.min(100, q));
+            inline = options != null && options.optBoolean("inline", false);
+        }
+
+        String getMimeType() {
+            return "jpg".equals(extension) ? "image/jpeg" : "image/" + extension;
+        }
+
+        /**
+         * WEBP is deprecated on API 30+, where WEBP_LOSSY is the same lossy encoder
+         */
+        @SuppressWarnings("deprecation")
+        private static Bitmap.CompressFormat webp() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                return Bitmap.CompressFormat.WEBP_LOSSY;
+            }
+            return Bitmap.CompressFormat.WEBP;
+        }
+    }
+
+    static final class Thumbnail {
+        final byte[] data;
+        final int width;
+        final int height;
+
+        Thumbnail(byte[] data, int width, int height) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * @param context application context
+     * @param maxConcurrency upper bound on decoding threads shared by all batches
+     * @param memoryBytes size of the in-memory cache of encoded thumbnails
+     * @param diskBytes size of the thumbnail folder
+     */
+    public Thumbnailer(Context context, int maxConcurrency, int memoryBytes, long diskBytes) {
+        this.context = context;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(this.maxConcurrency, this.maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ActionScheduler.NamedThreadFactory("IntentPlugin-thumb"));
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+        this.dir = new File(context.getCacheDir(), FOLDER);
+        this.maxDiskBytes = Math.max(0, diskBytes);
+        this.memory = new LruCache<String, Thumbnail>(Math.max(1, memoryBytes)) {
+            @Override
+            protected int sizeOf(String key, Thumbnail value) {
+                return value.data.length;
+            }
+        };
+    }
+
+    /**
+     * Start a batch, results are streamed to the callback
+     *
+     * @param uris content or file URIs
+     * @param spec
+     * @param concurrency threads for this batch, capped by the pool size
+     * @param callbackContext kept alive until the summary is sent
+     */
+    public void generate(final List<String> uris, final Spec spec, int concurrency, final CallbackContext callbackContext) {
+        final int total = uris.size();
+        if (total == 0) {
+            sendSummary(callbackContext, 0, 0, 0);
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final int workers = Math.min(total, Math.max(1, Math.min(concurrency, maxConcurrency)));
+
+        for (int w = 0; w < workers; w++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    FileUtils fileUtils = new FileUtils(context);
+                    int index;
+                    while ((index = next.getAndIncrement()) < total) {
+                        if (!generateOne(fileUtils, index, uris.get(index), spec, callbackContext)) {
+                            failed.incrementAndGet();
+                        }
+                        if (finished.incrementAndGet() == total) {
+                            int failures = failed.get();
+                            sendSummary(callbackContext, total, total - failures, failures);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return { memoryHits, memoryMisses, memoryBytes, maxMemoryBytes, diskEntries, diskBytes, maxDiskBytes }
+     */
+    public JSONObject getStats() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("memoryHits", memory.hitCount());
+        json.put("memoryMisses", memory.missCount());
+        json.put("memoryBytes", memory.size());
+        json.put("maxMemoryBytes", memory.maxSize());
+        synchronized (this) {
+            loadDiskIndex();
+            json.put("diskEntries", disk.size());
+            json.put("diskBytes", diskBytes);
+        }
+        json.put("maxDiskBytes", maxDiskBytes);
+        return json;
+    }
+
+    private boolean generateOne(FileUtils fileUtils, int index, String uriString, Spec spec, CallbackContext callbackContext) {
+        JSONObject item = new JSONObject();
+        boolean generated = false;
+        long started = Metrics.start("thumbnail");
+        Uri uri = Uri.parse(uriString);
+        long bytes = 0;
+        try {
+            item.put("index", index);
+            item.put("uri", uriString);
+            try {
+                String key = keyOf(fileUtils, uri, spec);
+                String cached = "disk";
+                Thumbnail thumbnail = spec.inline ? memory.get(key) : null;
+                File file = lookup(key);
+                if (thumbnail != null) {
+                    cached = "memory";
+                } else if (file == null) {
+                    thumbnail = render(uri, spec);
+                    file = store(key, thumbnail, spec);
+                    cached = null;
+                }
+                if (spec.inline) {
+                    if (thumbnail == null) {
+                        thumbnail = readFile(file);
+                    }
+                    memory.put(key, thumbnail);
+                    item.put("data", Base64.encodeToString(thumbnail.data, Base64.NO_WRAP));
+                    item.put("width", thumbnail.width);
+                    item.put("height", thumbnail.height);
+                    bytes = thumbnail.data.length;
+                } else {
+                    int[] size = sizeOf(file);
+                    item.put("path", file.getAbsolutePath());
+                    item.put("width", size[0]);
+                    item.put("height", size[1]);
+                    bytes = file.length();
+                }
+                item.put("mimeType", spec.getMimeType());
+                item.put("cached", cached != null ? cached : false);
+                generated = true;
+            } catch (Exception | OutOfMemoryError e) {
+                PluginLog.d(TAG, "No thumbnail for " + uriString + ": " + e.getMessage());
+                item.put("error", String.valueOf(e.getMessage()));
+            }
+        } catch (JSONException e) {
+            PluginLog.d(TAG, e.getMessage());
+        } finally {
+            Metrics.record("thumbnail", uri.getAuthority(), started, bytes, generated);
+        }
+
+        PluginResult result = new PluginResult(PluginResult.Status.OK, item);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        return generated;
+    }
+
+    /**
+     * Cache key, changes when the source reports a new size or modified time
+     */
+    private String keyOf(FileUtils fileUtils, Uri uri, Spec spec) {
+        long size = -1;
+        long lastModified = 0;
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            FileUtils.SourceInfo info = fileUtils.querySourceInfo(uri);
+            size = info.size;
+            lastModified = info.lastModified;
+        } else if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            File source = new File(uri.getPath());
+            size = source.length();
+            lastModified = source.lastModified();
+        }
+        String key = uri + "|" + size + "|" + lastModified + "|" + spec.maxPx + "|" + spec.extension + "|" + spec.quality;
+        return UUID.nameUUIDFromBytes(key.getBytes(UTF8)).toString();
+    }
+
+    // Decoding
+
+    private Thumbnail render(Uri uri, Spec spec) throws IOException {
+        Bitmap bitmap = decode(uri, spec.maxPx);
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            float scale = Math.min(1f, spec.maxPx / (float) Math.max(width, height));
+            if (scale < 1f) {
+                int scaledWidth = Math.max(1, Math.round(width * scale));
+                int scaledHeight = Math.max(1, Math.round(height * scale));
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                    bitmap = scaled;
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+            if (!bitmap.compress(spec.format, spec.quality, out)) {
+                throw new IOException("Unable to encode thumbnail");
+            }
+            return new Thumbnail(out.toByteArray(), bitmap.getWidth(), bitmap.getHeight());
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Decode at roughly maxPx without ever holding the full size image
+     */
+    private Bitmap decode(final Uri uri, int maxPx) throws IOException {
+        final ContentResolver resolver = context.getContentResolver();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            final Size size = new Size(maxPx, maxPx);
+            try {
+                Bitmap thumbnail = ProviderGuard.open(uri, new ProviderGuard.Call<Bitmap>() {
+                    @Override
+                    public Bitmap run(CancellationSignal signal) throws IOException {
+                        return resolver.loadThumbnail(uri, size, signal);
+                    }
+                });
+                if (thumbnail != null) {
+                    return thumbnail;
+                }
+            } catch (ProviderGuard.ProviderTimeoutException | ProviderGuard.ProviderUnavailableException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                PluginLog.d(TAG, "Provider has no thumbnail for " + uri + ", decoding it: " + e.getMessage());
+            }
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a decodable image");
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, maxPx);
+        Bitmap bitmap = decodeStream(resolver, uri, options);
+        if (bitmap == null) {
+            throw new IOException("Unable to decode image");
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = ProviderGuard.openInputStream(resolver, uri);
+        if (in == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Largest power of two that keeps both sides at or above maxPx
+     */
+    static int sampleSize(int width, int height, int maxPx) {
+        int sample = 1;
+        while (width / (sample * 2) >= maxPx && height / (sample * 2) >= maxPx) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    // Disk cache
+
+    private synchronized File lookup(String key) {
+        loadDiskIndex();
+        File file = disk.get(key);
+        if (file == null) {
+            return null;
+        }
+        if (!file.isFile()) {
+            disk.remove(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    private File store(String key, Thumbnail thumbnail, Spec spec) throws IOException {
+        synchronized (this) {
+            loadDiskIndex();
+        }
+        File file = new File(dir, key + "_" + thumbnail.width + "x" + thumbnail.height + "." + spec.extension);
+        File part = new File(dir, file.getName() + CopyEngine.PART_SUFFIX);
+        OutputStream out = new FileOutputStream(part);
+        try {
+            out.write(thumbnail.data);
+        } finally {
+            out.close();
+        }
+        if (!part.renameTo(file)) {
+            part.delete();
+            throw new IOException("Unable to store thumbnail");
+        }
+
+        synchronized (this) {
+            File previous = disk.put(key, file);
+            if (previous != null && !previous.equals(file)) {
+                diskBytes -= previous.length();
+                previous.delete();
+            }
+            diskBytes += thumbnail.data.length;
+            trimDisk();
+        }
+        return file;
+    }
+
+    private void loadDiskIndex() {
+        if (disk != null) {
+            return;
+        }
+        disk = new LinkedHashMap<>(64, 0.75f, true);
+        diskBytes = 0;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            PluginLog.w(TAG, "Unable to create " + dir);
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.indexOf('_');
+            if (separator <= 0 || name.endsWith(CopyEngine.PART_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            disk.put(name.substring(0, separator), file);
+            diskBytes += file.length();
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        // The most recent thumbnail is always kept, its path is about to be returned
+        Iterator<Map.Entry<String, File>> it = disk.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && disk.size() > 1 && it.hasNext()) {
+            File file = it.next().getValue();
+            diskBytes -= file.length();
+            file.delete();
+            it.remove();
+        }
+    }
+
+    /**
+     * Width and height are part of the file name, see {@link #store}
+     */
+    private static int[] sizeOf(File file) {
+        String name = file.getName();
+        int start = name.indexOf('_') + 1;
+        int x = name.indexOf('x', start);
+        int dot = name.indexOf('.', x);
+        try {
+            return new int[] {
+                    Integer.parseInt(name.substring(start, x)), Integer.parseInt(name.substring(x + 1, dot))
+            };
+        } catch (RuntimeException e) {
+            return new int[] { 0, 0 };
+        }
+    }
+
+    private static Thumbnail readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        int[] size = sizeOf(file);
+        return new Thumbnail(data, size[0], size[1]);
+    }
+
+    private void sendSummary(CallbackContext callbackContext, int total, int generated, int failed) {
+        JSONObject summary = new JSONObject();
+        try {
+            summary.put("done", true);
+            summary.put("total", total);
+            summary.put("generated", generated);
+            summary.put("failed", failed);
+        } catch (JSONException e) {
+            PluginLog.d(TAG, e.getMessage());
+        }
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, summary));
+    }
+}
@@ -0,0 +1,469 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks the documents under an ACTION_OPEN_DOCUMENT_TREE URI and streams
+ * the files it finds back in batches.
+ *
+ * Children are listed with buildChildDocumentsUriUsingTree and only the
+ * columns needed. The walk is depth first. Directories still to visit are
+ * kept on a stack capped at maxFrontier entries: when a listing would go
+ * over it, the rest of that listing is stored as one (directory, position)
+ * entry and listed again later from that position. A folder with tens of
+ * thousands of subfolders never holds more than the cap in memory.
+ *
+ * Entries are sent on a kept-alive callback as
+ *
+ *   { "id": "walk-1", "event": "entries", "entries": [ { uri, name, path, mimeType, size }, ... ] }
+ *
+ * and the walk ends with
+ *
+ *   { "id": "walk-1", "event": "done", "files": 1200, "directories": 40, "failed": 0, "bytes": 123456 }
+ *
+ * With resolve set to "path" or "copy", every file is resolved or copied on
+ * a bounded pool before it is sent, and has "localPath" or "error" set. The walk
+ * waits for the pool when more than 2 x concurrency files are pending, so
+ * memory stays bounded however fast the listing is.
+ */
+public class TreeWalker {
+
+    public static final String RESOLVE_NONE = "none";
+    public static final String RESOLVE_PATH = "path";
+    public static final String RESOLVE_COPY = "copy";
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    public static final int DEFAULT_MAX_FRONTIER = 1024;
+
+    private static final String TAG = "TreeWalker";
+
+    private final Context context;
+    private final ExecutorService walkPool;
+    private final ExecutorService resolvePool;
+    private final int maxConcurrency;
+    private final AtomicInteger walkIds = new AtomicInteger();
+    private final ConcurrentHashMap<String, Walk> walks = new ConcurrentHashMap<>();
+
+    /**
+     * Options of a walk
+     */
+    public static final class Options {
+        String id;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        int maxFrontier = DEFAULT_MAX_FRONTIER;
+        int maxDepth = Integer.MAX_VALUE;
+        long maxEntries = Long.MAX_VALUE;
+        boolean lastModified = false;
+        String resolve = RESOLVE_NONE;
+        int concurrency = 2;
+
+        /**
+         * @param json { id, batchSize, maxFrontier, maxDepth, maxEntries,
+         *             lastModified, resolve: "none" | "path" | "copy", concurrency }, may be null
+         */
+        public Options(JSONObject json) {
+            if (json == null) {
+                return;
+            }
+            id = json.has("id") ? json.optString("id") : null;
+            batchSize = Math.max(1, json.optInt("batchSize", batchSize));
+            maxFrontier = Math.max(1, json.optInt("maxFrontier", maxFrontier));
+            maxDepth = Math.max(0, json.optInt("maxDepth", maxDepth));
+            maxEntries = Math.max(1, json.optLong("maxEntries", maxEntries));
+            lastModified = json.optBoolean("lastModified", false);
+            resolve = json.optString("resolve", RESOLVE_NONE);
+            if (!RESOLVE_NONE.equals(resolve) && !RESOLVE_PATH.equals(resolve) && !RESOLVE_COPY.equals(resolve)) {
+                throw new IllegalArgumentException("Unknown resolve mode " + resolve);
+            }
+            concurrency = Math.max(1, json.optInt("concurrency", concurrency));
+        }
+    }
+
+    /**
+     * A directory to list, from position on
+     */
+    private static final class Pending {
+        final String documentId;
+        final String path;
+        final int depth;
+        final int position;
+
+        Pending(String documentId, String path, int depth, int position) {
+            this.documentId = documentId;
+            this.path = path;
+            this.depth = depth;
+            this.position = position;
+        }
+    }
+
+    private final class Walk {
+        final String id;
+        final Uri tree;
+        final Options options;
+        final CallbackContext callbackContext;
+        final String[] projection;
+        final Semaphore inFlight;
+        final Set<CopyEngine.Control> copies = ConcurrentHashMap.newKeySet();
+        volatile boolean cancelled = false;
+
+        JSONArray batch = new JSONArray();
+        long files = 0;
+        long directories = 0;
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        int maxFrontierSeen = 0;
+
+        Walk(String id, Uri tree, Options options, CallbackContext callbackContext) {
+            this.id = id;
+            this.tree = tree;
+            this.options = options;
+            this.callbackContext = callbackContext;
+            this.inFlight = new Semaphore(Math.min(options.concurrency, maxConcurrency) * 2);
+            List<String> columns = new ArrayList<>();
+            columns.add(DocumentsContract.Document.COLUMN_DOCUMENT_ID);
+            columns.add(DocumentsContract.Document.COLUMN_DISPLAY_NAME);
+            columns.add(DocumentsContract.Document.COLUMN_MIME_TYPE);
+            columns.add(DocumentsContract.Document.COLUMN_SIZE);
+            if (options.lastModified) {
+                columns.add(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+            }
+            this.projection = columns.toArray(new String[columns.size()]);
+        }
+
+        void cancel() {
+            cancelled = true;
+            for (CopyEngine.Control control : copies) {
+                control.cancel();
+            }
+        }
+    }
+
+    /**
+     * @param context application context
+     * @param maxConcurrency upper bound on resolve or copy threads shared by all walks
+     */
+    public TreeWalker(Context context, int maxConcurrency) {
+        this.context = context;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        ThreadPoolExecutor walker = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ActionScheduler.NamedThreadFactory("IntentPlugin-walk"));
+        walker.allowCoreThreadTimeOut(true);
+        this.walkPool = walker;
+        ThreadPoolExecutor resolver = new ThreadPoolExecutor(this.maxConcurrency, this.maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ActionScheduler.NamedThreadFactory("IntentPlugin-walk-resolve"));
+        resolver.allowCoreThreadTimeOut(true);
+        this.resolvePool = resolver;
+    }
+
+    /**
+     * Start walking a tree, entries are streamed to the callback
+     *
+     * @param tree tree URI from ACTION_OPEN_DOCUMENT_TREE
+     * @param options
+     * @param callbackContext kept alive until the done event is sent
+     * @return id of the walk, see {@link #cancel(String)}
+     */
+    public String walk(Uri tree, Options options, CallbackContext callbackContext) {
+        if (!DocumentsContract.isTreeUri(tree)) {
+            throw new IllegalArgumentException("Not a document tree URI: " + tree);
+        }
+        String id = options.id != null ? options.id : "walk-" + walkIds.incrementAndGet();
+        final Walk walk = new Walk(id, tree, options, callbackContext);
+        if (walks.putIfAbsent(id, walk) != null) {
+            throw new IllegalArgumentException("Walk " + id + " is already running");
+        }
+        walkPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    walkTree(walk);
+                } finally {
+                    walks.remove(walk.id);
+                }
+            }
+        });
+        return id;
+    }
+
+    /**
+     * @return true if the walk was running
+     */
+    public boolean cancel(String id) {
+        Walk walk = walks.get(id);
+        if (walk != null) {
+            walk.cancel();
+        }
+        return walk != null;
+    }
+
+    public void shutdown() {
+        for (Walk walk : walks.values()) {
+            walk.cancel();
+        }
+        walkPool.shutdownNow();
+        resolvePool.shutdownNow();
+    }
+
+    private void walkTree(Walk walk) {
+        long started = Metrics.start("walk");
+        boolean ok = false;
+        try {
+            ArrayDeque<Pending> frontier = new ArrayDeque<>();
+            frontier.push(new Pending(DocumentsContract.getTreeDocumentId(walk.tree), "", 0, 0));
+            while (!frontier.isEmpty() && !walk.cancelled && walk.files < walk.options.maxEntries) {
+                list(walk, frontier.pop(), frontier);
+                walk.maxFrontierSeen = Math.max(walk.maxFrontierSeen, frontier.size());
+            }
+            drain(walk);
+            if (walk.cancelled) {
+                throw new CopyEngine.CancelledException();
+            }
+            flush(walk);
+            walk.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, summary(walk)));
+            ok = true;
+        } catch (InterruptedException e) {
+            walk.cancel();
+            drain(walk);
+            Thread.currentThread().interrupt();
+            fail(walk, e);
+        } catch (Exception e) {
+            drain(walk);
+            fail(walk, e);
+        } finally {
+            Metrics.record("walk", walk.tree.getAuthority(), started, walk.bytes.get(), ok);
+        }
+    }
+
+    /**
+     * Wait for files still being resolved, so nothing is sent after the
+     * done or error result
+     */
+    private void drain(Walk walk) {
+        int permits = Math.min(walk.options.concurrency, maxConcurrency) * 2;
+        walk.inFlight.acquireUninterruptibly(permits);
+        walk.inFlight.release(permits);
+    }
+
+    /**
+     * List one directory from its position, files are emitted and
+     * subdirectories pushed on the frontier
+     */
+    private void list(Walk walk, Pending dir, ArrayDeque<Pending> frontier) throws IOException, InterruptedException {
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(walk.tree, dir.documentId);
+        Cursor cursor = ProviderGuard.query(context.getContentResolver(), children, walk.projection, null, null);
+        if (cursor == null) {
+            return;
+        }
+        // Always take at least one directory, so a full frontier still makes progress
+        int room = Math.max(1, walk.options.maxFrontier - frontier.size());
+        List<Pending> subdirectories = new ArrayList<>();
+        Pending rest = null;
+        try {
+            if (dir.position > 0 && !cursor.moveToPosition(dir.position - 1)) {
+                return;
+            }
+            int position = dir.position;
+            while (cursor.moveToNext() && !walk.cancelled) {
+                position++;
+                String documentId = cursor.getString(0);
+                String name = cursor.getString(1);
+                String mimeType = cursor.getString(2);
+                String path = dir.path.isEmpty() ? name : dir.path + "/" + name;
+                if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType)) {
+                    walk.directories++;
+                    if (dir.depth < walk.options.maxDepth) {
+                        if (subdirectories.size() >= room) {
+                            // Come back for this directory and the rest of the listing later
+                            walk.directories--;
+                            rest = new Pending(dir.documentId, dir.path, dir.depth, position - 1);
+                            break;
+                        }
+                        subdirectories.add(new Pending(documentId, path, dir.depth + 1, 0));
+                    }
+                    continue;
+                }
+
+                JSONObject entry = new JSONObject();
+                try {
+                    entry.put("uri", DocumentsContract.buildDocumentUriUsingTree(walk.tree, documentId).toString());
+                    entry.put("name", name);
+                    entry.put("path", path);
+                    entry.put("mimeType", mimeType);
+                    long size = cursor.isNull(3) ? -1 : cursor.getLong(3);
+                    entry.put("size", size);
+                    if (size > 0) {
+                        walk.bytes.addAndGet(size);
+                    }
+                    if (walk.options.lastModified && !cursor.isNull(4)) {
+                        entry.put("lastModified", cursor.getLong(4));
+                    }
+                } catch (JSONException e) {
+                    PluginLog.d(TAG, e.getMessage());
+                }
+                walk.files++;
+                emit(walk, entry);
+                if (walk.files >= walk.options.maxEntries) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (rest != null) {
+            frontier.push(rest);
+        }
+        // Pushed in reverse so the listing order is kept
+        for (int i = subdirectories.size() - 1; i >= 0; i--) {
+            frontier.push(subdirectories.get(i));
+        }
+    }
+
+    private void emit(final Walk walk, final JSONObject entry) throws InterruptedException {
+        if (RESOLVE_NONE.equals(walk.options.resolve)) {
+            add(walk, entry);
+            return;
+        }
+        walk.inFlight.acquire();
+        try {
+            resolvePool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!walk.cancelled) {
+                            resolve(walk, entry);
+                        }
+                        add(walk, entry);
+                    } finally {
+                        walk.inFlight.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            walk.inFlight.release();
+            throw e;
+        }
+    }
+
+    private void resolve(Walk walk, JSONObject entry) {
+        try {
+            Uri uri = Uri.parse(entry.getString("uri"));
+            FileUtils fileUtils = new FileUtils(context);
+            String path;
+            if (RESOLVE_COPY.equals(walk.options.resolve)) {
+                CopyEngine.Control control = new CopyEngine.Control(null, 0);
+                walk.copies.add(control);
+                try {
+                    path = fileUtils.importFile(uri, control);
+                } finally {
+                    walk.copies.remove(control);
+                }
+            } else {
+                path = ResolvedPathCache.getInstance(context).resolve(fileUtils, uri);
+            }
+            if (path != null) {
+                entry.put("localPath", path);
+            } else {
+                walk.failed.incrementAndGet();
+                entry.put("error", "Unable to resolve path");
+            }
+        } catch (Exception e) {
+            walk.failed.incrementAndGet();
+            try {
+                entry.put("error", String.valueOf(e.getMessage()));
+            } catch (JSONException je) {
+                PluginLog.d(TAG, je.getMessage());
+            }
+        }
+    }
+
+    private void add(Walk walk, JSONObject entry) {
+        JSONArray full = null;
+        synchronized (walk) {
+            walk.batch.put(entry);
+            if (walk.batch.length() >= walk.options.batchSize) {
+                full = walk.batch;
+                walk.batch = new JSONArray();
+            }
+        }
+        if (full != null) {
+            send(walk, full);
+        }
+    }
+
+    private void flush(Walk walk) {
+        JSONArray rest;
+        synchronized (walk) {
+            rest = walk.batch;
+            walk.batch = new JSONArray();
+        }
+        if (rest.length() > 0) {
+            send(walk, rest);
+        }
+    }
+
+    private void send(Walk walk, JSONArray entries) {
+        JSONObject event = new JSONObject();
+        try {
+            event.put("id", walk.id);
+            event.put("event", "entries");
+            event.put("entries", entries);
+        } catch (JSONException e) {
+            PluginLog.d(TAG, e.getMessage());
+        }
+        PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+        result.setKeepCallback(true);
+        walk.callbackContext.sendPluginResult(result);
+    }
+
+    private JSONObject summary(Walk walk) throws JSONException {
+        JSONObject done = new JSONObject();
+        done.put("id", walk.id);
+        done.put("event", "done");
+        done.put("files", walk.files);
+        done.put("directories", walk.directories);
+        done.put("failed", walk.failed.get());
+        done.put("bytes", walk.bytes.get());
+        done.put("truncated", walk.files >= walk.options.maxEntries);
+        done.put("maxFrontier", walk.maxFrontierSeen);
+        return done;
+    }
+
+    private void fail(Walk walk, Exception e) {
+        PluginLog.d(TAG, "Walk " + walk.id + " failed: " + e.getMessage());
+        flush(walk);
+        JSONObject error = new JSONObject();
+        try {
+            error.put("id", walk.id);
+            error.put("error", e.getClass().getSimpleName());
+            error.put("message", e.getMessage());
+        } catch (JSONException je) {
+            PluginLog.d(TAG, je.getMessage());
+        }
+        walk.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, error));
+    }
+}
@@ -0,0 +1,98 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for Cordova's CallbackContext. Instead of sending results to a
+ * web view it keeps them, so tests can wait for them.
+ */
+public class CallbackContext {
+
+    private final String callbackId;
+    private final List<PluginResult> results = new ArrayList<>();
+    private boolean finished;
+
+    public CallbackContext() {
+        this("test");
+    }
+
+    public CallbackContext(String callbackId) {
+        this.callbackId = callbackId;
+    }
+
+    public String getCallbackId() {
+        return callbackId;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    public synchronized void sendPluginResult(PluginResult result) {
+        if (finished) {
+            throw new IllegalStateException("Result sent to finished callback " + callbackId);
+        }
+        finished = !result.getKeepCallback();
+        results.add(result);
+        notifyAll();
+    }
+
+    public void success(JSONObject message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(JSONArray message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success() {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK));
+    }
+
+    public void error(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    public void error(JSONObject message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    public synchronized List<PluginResult> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Wait until the callback has received count results
+     *
+     * @return the results so far, fewer than count on timeout
+     */
+    public synchronized List<PluginResult> awaitResults(int count, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (results.size() < count) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Forget the results, so the callback can be reused e.g. by a benchmark
+     */
+    public synchronized void reset() {
+        results.clear();
+        finished = false;
+    }
+}
@@ -0,0 +1,18 @@
+package org.apache.cordova;
+
+import android.app.Activity;
+import android.content.Context;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Stand-in for Cordova's CordovaInterface with the calls the plugin makes
+ */
+public interface CordovaInterface {
+
+    Activity getActivity();
+
+    Context getContext();
+
+    ExecutorService getThreadPool();
+}
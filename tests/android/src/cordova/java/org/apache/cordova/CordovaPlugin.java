@@ -0,0 +1,60 @@
+package org.apache.cordova;
+
+import android.content.Intent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Stand-in for Cordova's CordovaPlugin: the fields, initialization and
+ * lifecycle callbacks the plugin uses
+ */
+public class CordovaPlugin {
+
+    public CordovaWebView webView;
+    public CordovaInterface cordova;
+    protected CordovaPreferences preferences;
+    private String serviceName;
+
+    /**
+     * Called by the host (or a test) right after construction
+     */
+    public final void privateInitialize(String serviceName, CordovaInterface cordova, CordovaWebView webView,
+                                        CordovaPreferences preferences) {
+        this.serviceName = serviceName;
+        this.cordova = cordova;
+        this.webView = webView;
+        this.preferences = preferences;
+        initialize(cordova, webView);
+        pluginInitialize();
+    }
+
+    public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+    }
+
+    protected void pluginInitialize() {
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        return false;
+    }
+
+    public void onPause(boolean multitasking) {
+    }
+
+    public void onResume(boolean multitasking) {
+    }
+
+    public void onNewIntent(Intent intent) {
+    }
+
+    public void onDestroy() {
+    }
+
+    public void onReset() {
+    }
+}
@@ -0,0 +1,7 @@
+package org.apache.cordova;
+
+/**
+ * Stand-in for Cordova's CordovaWebView, the plugin doesn't call it
+ */
+public interface CordovaWebView {
+}
@@ -0,0 +1,113 @@
+package org.apache.cordova;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Stand-in for Cordova's PluginResult. Messages are encoded the way
+ * Cordova sends them to the web view.
+ */
+public class PluginResult {
+
+    public enum Status {
+        NO_RESULT,
+        OK,
+        CLASS_NOT_FOUND_EXCEPTION,
+        ILLEGAL_ACCESS_EXCEPTION,
+        INSTANTIATION_EXCEPTION,
+        MALFORMED_URL_EXCEPTION,
+        IO_EXCEPTION,
+        INVALID_ACTION,
+        JSON_EXCEPTION,
+        ERROR
+    }
+
+    public static final int MESSAGE_TYPE_STRING = 1;
+    public static final int MESSAGE_TYPE_JSON = 2;
+    public static final int MESSAGE_TYPE_NUMBER = 3;
+    public static final int MESSAGE_TYPE_BOOLEAN = 4;
+    public static final int MESSAGE_TYPE_NULL = 5;
+    public static final int MESSAGE_TYPE_ARRAYBUFFER = 6;
+    public static final int MESSAGE_TYPE_BINARYSTRING = 7;
+
+    private final int status;
+    private final int messageType;
+    private String strMessage;
+    private String encodedMessage;
+    private boolean keepCallback = false;
+
+    public PluginResult(Status status) {
+        this(status, status == Status.NO_RESULT ? null : status.name());
+    }
+
+    public PluginResult(Status status, String message) {
+        this.status = status.ordinal();
+        this.messageType = message == null ? MESSAGE_TYPE_NULL : MESSAGE_TYPE_STRING;
+        // Quoted on first use, like Cordova
+        this.strMessage = message;
+    }
+
+    public PluginResult(Status status, JSONArray message) {
+        this(status, MESSAGE_TYPE_JSON, message.toString());
+    }
+
+    public PluginResult(Status status, JSONObject message) {
+        this(status, MESSAGE_TYPE_JSON, message.toString());
+    }
+
+    public PluginResult(Status status, int i) {
+        this(status, MESSAGE_TYPE_NUMBER, String.valueOf(i));
+    }
+
+    public PluginResult(Status status, float f) {
+        this(status, MESSAGE_TYPE_NUMBER, String.valueOf(f));
+    }
+
+    public PluginResult(Status status, boolean b) {
+        this(status, MESSAGE_TYPE_BOOLEAN, Boolean.toString(b));
+    }
+
+    public PluginResult(Status status, byte[] data) {
+        this(status, data, false);
+    }
+
+    public PluginResult(Status status, byte[] data, boolean binaryString) {
+        this(status, binaryString ? MESSAGE_TYPE_BINARYSTRING : MESSAGE_TYPE_ARRAYBUFFER,
+                Base64.encodeToString(data, Base64.NO_WRAP));
+    }
+
+    private PluginResult(Status status, int messageType, String encodedMessage) {
+        this.status = status.ordinal();
+        this.messageType = messageType;
+        this.encodedMessage = encodedMessage;
+    }
+
+    public void setKeepCallback(boolean keepCallback) {
+        this.keepCallback = keepCallback;
+    }
+
+    public boolean getKeepCallback() {
+        return keepCallback;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * @return the message as sent to the web view: JSON text, a quoted
+     *         string, or base64 for binary messages, null for no message
+     */
+    public String getMessage() {
+        if (encodedMessage == null && strMessage != null) {
+            encodedMessage = JSONObject.quote(strMessage);
+        }
+        return encodedMessage;
+    }
+}
@@ -0,0 +1,71 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Looper;
+
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaPreferences;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal Cordova host: an activity holding the launch intent, the
+ * application context and a thread pool. The activity is never started,
+ * so plugins can be loaded from any thread, including JMH's.
+ */
+public class CordovaHost implements CordovaInterface {
+
+    private final HostActivity activity;
+    private final ExecutorService threadPool = Executors.newCachedThreadPool();
+
+    public CordovaHost(Intent intent) {
+        // Activity creates a Handler, JMH threads have no looper of their own
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        this.activity = new HostActivity(RuntimeEnvironment.getApplication());
+        this.activity.setIntent(intent);
+    }
+
+    /**
+     * Initialize a plugin the way Cordova does when it is first called
+     */
+    public <T extends CordovaPlugin> T load(T plugin, CordovaPreferences preferences) {
+        plugin.privateInitialize(plugin.getClass().getSimpleName(), this, null, preferences);
+        return plugin;
+    }
+
+    public void setIntent(Intent intent) {
+        activity.setIntent(intent);
+    }
+
+    @Override
+    public Activity getActivity() {
+        return activity;
+    }
+
+    @Override
+    public Context getContext() {
+        return activity;
+    }
+
+    @Override
+    public ExecutorService getThreadPool() {
+        return threadPool;
+    }
+
+    public void shutdown() {
+        threadPool.shutdownNow();
+    }
+
+    private static final class HostActivity extends Activity {
+        HostActivity(Context base) {
+            attachBaseContext(base);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+
+import org.robolectric.Robolectric;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves files registered with {@link #serve} under any authority it is
+ * installed for, so one fake stands in for the Downloads, MediaStore,
+ * Drive or WhatsApp providers. Open and query delays simulate a slow
+ * provider.
+ */
+public class FakeProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.betasoft.cordova.plugin.intent.fake";
+
+    private static final ConcurrentHashMap<String, File> FILES = new ConcurrentHashMap<>();
+    static final AtomicInteger OPENS = new AtomicInteger();
+    static final AtomicInteger QUERIES = new AtomicInteger();
+    static volatile long openDelayMs = 0;
+    static volatile long queryDelayMs = 0;
+
+    /**
+     * Register the provider for the authorities, plus {@link #AUTHORITY}
+     */
+    static void install(String... authorities) {
+        Robolectric.setupContentProvider(FakeProvider.class, AUTHORITY);
+        for (String authority : authorities) {
+            Robolectric.setupContentProvider(FakeProvider.class, authority);
+        }
+    }
+
+    /**
+     * Serve a file as content://AUTHORITY/name
+     */
+    static Uri serve(String name, File file) {
+        return serve(Uri.parse("content://" + AUTHORITY + "/" + name), file);
+    }
+
+    /**
+     * Serve a file under any URI. A query on the parent URI with a single
+     * selection argument, like MediaStore's "_id=?", finds it too.
+     */
+    static Uri serve(Uri uri, File file) {
+        FILES.put(uri.toString(), file);
+        return uri;
+    }
+
+    static void reset() {
+        FILES.clear();
+        OPENS.set(0);
+        QUERIES.set(0);
+        openDelayMs = 0;
+        queryDelayMs = 0;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        OPENS.incrementAndGet();
+        sleep(openDelayMs);
+        File file = FILES.get(uri.toString());
+        if (file == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        QUERIES.incrementAndGet();
+        sleep(queryDelayMs);
+        File file = FILES.get(uri.toString());
+        if (file == null && selectionArgs != null && selectionArgs.length == 1) {
+            file = FILES.get(uri + "/" + selectionArgs[0]);
+        }
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        MatrixCursor cursor = new MatrixCursor(projection);
+        if (file == null) {
+            return cursor;
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            row[i] = column(file, projection[i]);
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Like real providers, unknown columns are an error
+     */
+    private static Object column(File file, String column) {
+        switch (column) {
+            case OpenableColumns.DISPLAY_NAME:
+                return file.getName();
+            case OpenableColumns.SIZE:
+                return file.length();
+            case DocumentsContract.Document.COLUMN_LAST_MODIFIED:
+                return file.lastModified();
+            case MediaStore.MediaColumns.DATE_MODIFIED:
+                return file.lastModified() / 1000;
+            case MediaStore.MediaColumns.DATA:
+                return file.getAbsolutePath();
+            default:
+                throw new IllegalArgumentException("Invalid column " + column);
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Intent;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaPreferences;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding and calling the handler of a cheap, non-blocking action:
+ * execute() with the action table, an if/else chain over the action names
+ * in registration order, and the getDeclaredMethod + invoke lookup execute()
+ * did before the table. getCordovaIntentVersion is near the top of the
+ * chain, resetMetrics is last.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DispatchBenchmark {
+
+    @Param({"getCordovaIntentVersion", "resetMetrics"})
+    public String action;
+
+    private final JSONArray data = new JSONArray();
+    private final CallbackContext callbackContext = new CallbackContext();
+    private CordovaHost host;
+    private IntentPlugin plugin;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        host = new CordovaHost(new Intent(Intent.ACTION_MAIN));
+        plugin = host.load(new IntentPlugin(), new CordovaPreferences());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plugin.onDestroy();
+        host.shutdown();
+    }
+
+    @Benchmark
+    public boolean actionTable() {
+        callbackContext.reset();
+        return plugin.execute(action, data, callbackContext);
+    }
+
+    @Benchmark
+    public boolean ifElseChain() throws Exception {
+        callbackContext.reset();
+        return dispatch(action, data, callbackContext);
+    }
+
+    @Benchmark
+    public Object reflection() throws Exception {
+        callbackContext.reset();
+        Method method = IntentPlugin.class.getDeclaredMethod(action, JSONArray.class, CallbackContext.class);
+        return method.invoke(plugin, data, callbackContext);
+    }
+
+    private boolean dispatch(String action, JSONArray data, CallbackContext context) throws Exception {
+        if ("getCordovaIntent".equals(action)) {
+            return plugin.getCordovaIntent(data, context);
+        } else if ("getCordovaIntentVersion".equals(action)) {
+            return plugin.getCordovaIntentVersion(data, context);
+        } else if ("setNewIntentHandler".equals(action)) {
+            return plugin.setNewIntentHandler(data, context);
+        } else if ("getRealPathFromContentUrl".equals(action)) {
+            return plugin.getRealPathFromContentUrl(data, context);
+        } else if ("releaseLease".equals(action)) {
+            return plugin.releaseLease(data, context);
+        } else if ("getLeaseStats".equals(action)) {
+            return plugin.getLeaseStats(data, context);
+        } else if ("resolvePaths".equals(action)) {
+            return plugin.resolvePaths(data, context);
+        } else if ("getThumbnails".equals(action)) {
+            return plugin.getThumbnails(data, context);
+        } else if ("getThumbnailStats".equals(action)) {
+            return plugin.getThumbnailStats(data, context);
+        } else if ("getCopyCacheStats".equals(action)) {
+            return plugin.getCopyCacheStats(data, context);
+        } else if ("openStream".equals(action)) {
+            return plugin.openStream(data, context);
+        } else if ("readChunk".equals(action)) {
+            return plugin.readChunk(data, context);
+        } else if ("closeStream".equals(action)) {
+            return plugin.closeStream(data, context);
+        } else if ("getClipItems".equals(action)) {
+            return plugin.getClipItems(data, context);
+        } else if ("getIntentQueueStats".equals(action)) {
+            return plugin.getIntentQueueStats(data, context);
+        } else if ("invalidate".equals(action)) {
+            return plugin.invalidate(data, context);
+        } else if ("getPathCacheStats".equals(action)) {
+            return plugin.getPathCacheStats(data, context);
+        } else if ("importFile".equals(action)) {
+            return plugin.importFile(data, context);
+        } else if ("cancelImport".equals(action)) {
+            return plugin.cancelImport(data, context);
+        } else if ("hashContent".equals(action)) {
+            return plugin.hashContent(data, context);
+        } else if ("walkTree".equals(action)) {
+            return plugin.walkTree(data, context);
+        } else if ("cancelWalk".equals(action)) {
+            return plugin.cancelWalk(data, context);
+        } else if ("getStorageStats".equals(action)) {
+            return plugin.getStorageStats(data, context);
+        } else if ("getStartupTrace".equals(action)) {
+            return plugin.getStartupTrace(data, context);
+        } else if ("getMetrics".equals(action)) {
+            return plugin.getMetrics(data, context);
+        } else if ("getProviderStats".equals(action)) {
+            return plugin.getProviderStats(data, context);
+        } else if ("resetMetrics".equals(action)) {
+            return plugin.resetMetrics(data, context);
+        }
+        return false;
+    }
+}
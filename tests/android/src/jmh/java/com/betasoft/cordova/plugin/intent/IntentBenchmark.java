@@ -0,0 +1,118 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ClipData;
+import android.content.Intent;
+import android.net.Uri;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getCordovaIntent through execute(), for a SEND_MULTIPLE intent with 1,
+ * 100 and 10,000 clip items. "cold" alternates two intents so every call
+ * queries the clip item metadata and serializes, "cached" asks for the
+ * same intent again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IntentBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int clipItems;
+
+    private File dir;
+    private CordovaHost host;
+    private IntentPlugin plugin;
+    private Intent[] intents;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        FakeProvider.install();
+        dir = Files.createTempDirectory("intent-bench").toFile();
+        File file = new File(dir, "photo.jpg");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[4096]);
+        } finally {
+            out.close();
+        }
+
+        intents = new Intent[]{intent(file, "a"), intent(file, "b")};
+        host = new CordovaHost(intents[0]);
+        plugin = host.load(new IntentPlugin(), new CordovaPreferences());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plugin.onDestroy();
+        host.shutdown();
+        FakeProvider.reset();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public String cold() throws InterruptedException {
+        host.setIntent(intents[next++ & 1]);
+        return getCordovaIntent();
+    }
+
+    @Benchmark
+    public String cached() throws InterruptedException {
+        return getCordovaIntent();
+    }
+
+    private String getCordovaIntent() throws InterruptedException {
+        CallbackContext callbackContext = new CallbackContext();
+        plugin.execute("getCordovaIntent", new JSONArray(), callbackContext);
+        List<PluginResult> results = callbackContext.awaitResults(1, 1, TimeUnit.MINUTES);
+        if (results.isEmpty() || results.get(0).getStatus() != PluginResult.Status.OK.ordinal()) {
+            throw new IllegalStateException("getCordovaIntent failed: " + results);
+        }
+        return results.get(0).getMessage();
+    }
+
+    private Intent intent(File file, String prefix) {
+        ClipData clipData = null;
+        for (int i = 0; i < clipItems; i++) {
+            Uri uri = FakeProvider.serve(prefix + i + ".jpg", file);
+            if (clipData == null) {
+                clipData = ClipData.newRawUri("photo", uri);
+            } else {
+                clipData.addItem(new ClipData.Item(uri));
+            }
+        }
+        Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+        intent.setType("image/jpeg");
+        intent.putExtra(Intent.EXTRA_TEXT, "benchmark");
+        intent.setClipData(clipData);
+        return intent;
+    }
+}
@@ -0,0 +1,28 @@
+package com.betasoft.cordova.plugin.intent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Runs the JMH benchmarks inside a Robolectric sandbox, so they can use
+ * the framework classes and fake providers. The sandbox can't be set up
+ * in a forked VM, so forks are always 0: run a benchmark alone (a regex
+ * in -Pjmh) when you compare numbers.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JmhRunner {
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        String args = System.getProperty("jmh.args", "").trim();
+        CommandLineOptions commandLine = new CommandLineOptions(args.isEmpty() ? new String[0] : args.split("\\s+"));
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .forks(0)
+                .build()).run();
+    }
+}
@@ -0,0 +1,112 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Environment;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileUtils.getPath for a 64 KB file from each kind of provider. Drive is
+ * copied on every call, WhatsApp and unknown providers are copied once
+ * and then found in the copy cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PathBenchmark {
+
+    private static final String EXTERNAL_STORAGE = "com.android.externalstorage.documents";
+    private static final String DOWNLOADS = "com.android.providers.downloads.documents";
+    private static final String MEDIA_DOCUMENTS = "com.android.providers.media.documents";
+    private static final String DRIVE = "com.google.android.apps.docs.storage";
+    private static final String WHATSAPP = "com.whatsapp.provider.media";
+    private static final String PHOTOS = "com.google.android.apps.photos.content";
+
+    @Param({"externalStorage", "downloads", "media", "drive", "whatsApp", "photos", "file", "other"})
+    public String authority;
+
+    private File file;
+    private FileUtils fileUtils;
+    private Uri uri;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Context context = RuntimeEnvironment.getApplication();
+        FakeProvider.install(DOWNLOADS, MediaStore.AUTHORITY, DRIVE, WHATSAPP);
+        fileUtils = new FileUtils(context);
+
+        File downloads = new File(Environment.getExternalStorageDirectory(), "Download");
+        downloads.mkdirs();
+        file = new File(downloads, "bench.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64 * 1024]);
+        } finally {
+            out.close();
+        }
+
+        switch (authority) {
+            case "externalStorage":
+                uri = DocumentsContract.buildDocumentUri(EXTERNAL_STORAGE, "primary:Download/bench.bin");
+                break;
+            case "downloads":
+                uri = FakeProvider.serve(DocumentsContract.buildDocumentUri(DOWNLOADS, "42"), file);
+                break;
+            case "media":
+                FakeProvider.serve(Uri.withAppendedPath(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, "42"), file);
+                uri = DocumentsContract.buildDocumentUri(MEDIA_DOCUMENTS, "image:42");
+                break;
+            case "drive":
+                uri = FakeProvider.serve(Uri.parse("content://" + DRIVE + "/enc=bench"), file);
+                break;
+            case "whatsApp":
+                uri = FakeProvider.serve(Uri.parse("content://" + WHATSAPP + "/item/42"), file);
+                break;
+            case "photos":
+                uri = Uri.parse("content://" + PHOTOS + "/" + Uri.encode(file.getPath()));
+                break;
+            case "file":
+                uri = Uri.fromFile(file);
+                break;
+            default:
+                uri = FakeProvider.serve("bench.bin", file);
+                break;
+        }
+        if (fileUtils.getPath(uri) == null) {
+            throw new IllegalStateException("No path for " + uri);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FakeProvider.reset();
+        file.delete();
+    }
+
+    @Benchmark
+    public String getPath() {
+        return fileUtils.getPath(uri);
+    }
+}
@@ -0,0 +1,95 @@
+package com.betasoft.cordova.plugin.intent;
+
+import android.content.ClipData;
+import android.content.Intent;
+import android.net.Uri;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IntentSerializer.write (JSON) against IntentSerializer.writeCbor for an
+ * intent with 10, 1,000 and 10,000 extras and 100 clip items with file
+ * metadata. The *Result benchmarks add the plugin result each payload is
+ * sent in: JSON text as is, CBOR as base64 like every Cordova ArrayBuffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PayloadBenchmark {
+
+    private static final int CLIP_ITEMS = 100;
+
+    @Param({"10", "1000", "10000"})
+    public int extras;
+
+    private Intent intent;
+    private JSONObject[] metas;
+    private IntentSerializer json;
+    private IntentSerializer cbor;
+
+    @Setup
+    public void setUp() throws Exception {
+        intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+        intent.setType("image/*");
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        for (int i = 0; i < extras; i++) {
+            intent.putExtra("com.example.extra." + i, "value " + i + " ünïcødé");
+        }
+
+        ClipData clipData = null;
+        metas = new JSONObject[CLIP_ITEMS];
+        for (int i = 0; i < CLIP_ITEMS; i++) {
+            Uri uri = Uri.parse("content://com.android.providers.media.documents/document/image%3A" + (100000 + i));
+            if (clipData == null) {
+                clipData = ClipData.newRawUri("image", uri);
+            } else {
+                clipData.addItem(new ClipData.Item(uri));
+            }
+            metas[i] = new JSONObject()
+                    .put("name", "IMG_2024" + i + ".jpg")
+                    .put("size", 2500000L + i)
+                    .put("modifiedDate", 1700000000000L + i);
+        }
+        intent.setClipData(clipData);
+
+        // No extras limit, every extra is written
+        json = new IntentSerializer(null, 0, false);
+        cbor = new IntentSerializer(null, 0, true);
+    }
+
+    @Benchmark
+    public String json() throws IOException {
+        return json.write(intent, metas, -1, null);
+    }
+
+    @Benchmark
+    public byte[] cbor() throws IOException {
+        return cbor.writeCbor(intent, metas, -1, null);
+    }
+
+    @Benchmark
+    public String jsonResult() throws IOException {
+        return new RawJsonResult(PluginResult.Status.OK, json.write(intent, metas, -1, null)).getMessage();
+    }
+
+    @Benchmark
+    public String cborResult() throws IOException {
+        return new PluginResult(PluginResult.Status.OK, cbor.writeCbor(intent, metas, -1, null)).getMessage();
+    }
+}
@@ -0,0 +1,136 @@
+package com.betasoft.cordova.plugin.intent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class ActionSchedulerTest {
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private ActionScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsCallsOverTheActionLimit() throws Exception {
+        scheduler = new ActionScheduler(4, 1, 2, 16, ActionScheduler.POLICY_REJECT);
+        assertTrue(scheduler.submit("getPath", blocked(), new CallbackContext()));
+        assertTrue(scheduler.submit("getPath", blocked(), new CallbackContext()));
+
+        CallbackContext rejected = new CallbackContext();
+        assertFalse(scheduler.submit("getPath", blocked(), rejected));
+        assertError(rejected);
+        assertEquals(2, scheduler.getPending("getPath"));
+
+        // Other actions have their own limit
+        assertTrue(scheduler.submit("readChunk", blocked(), new CallbackContext()));
+    }
+
+    @Test
+    public void queuePolicyKeepsQueuingOverTheLimit() throws Exception {
+        scheduler = new ActionScheduler(1, 1, 1, 16, ActionScheduler.POLICY_QUEUE);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(scheduler.submit("getPath", blocked(), new CallbackContext()));
+        }
+        assertEquals(5, scheduler.getPending("getPath"));
+    }
+
+    @Test
+    public void fullSharedQueueRejectsEvenUnderTheLimit() throws Exception {
+        scheduler = new ActionScheduler(1, 1, 10, 1, ActionScheduler.POLICY_QUEUE);
+        // One running, one queued
+        assertTrue(scheduler.submit("a", blocked(), new CallbackContext()));
+        assertTrue(scheduler.submit("b", blocked(), new CallbackContext()));
+
+        CallbackContext rejected = new CallbackContext();
+        assertFalse(scheduler.submit("c", blocked(), rejected));
+        assertError(rejected);
+        assertEquals(0, scheduler.getPending("c"));
+        assertFalse(scheduler.submitInternal("startup", blocked()));
+    }
+
+    @Test
+    public void pendingCountDropsWhenCallsFinish() throws Exception {
+        scheduler = new ActionScheduler(2, 1, 2, 16, ActionScheduler.POLICY_REJECT);
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            scheduler.submit("getPath", new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            }, new CallbackContext());
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        waitForPending("getPath", 0);
+        assertTrue(scheduler.submit("getPath", blocked(), new CallbackContext()));
+    }
+
+    @Test
+    public void bulkCallsDontStarveShortCalls() throws Exception {
+        scheduler = new ActionScheduler(1, 1, 10, 16, ActionScheduler.POLICY_REJECT);
+        // The only bulk thread is busy with a long import
+        assertTrue(scheduler.submit("importFile", blocked(), new CallbackContext(), true));
+        assertTrue(scheduler.submit("importFile", blocked(), new CallbackContext(), true));
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(scheduler.submit("readChunk", new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, new CallbackContext()));
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void internalTasksDontCountAgainstActions() throws Exception {
+        scheduler = new ActionScheduler(2, 1, 1, 16, ActionScheduler.POLICY_REJECT);
+        assertTrue(scheduler.submitInternal("startup", blocked()));
+        assertTrue(scheduler.submitInternal("metadata", blocked()));
+        assertTrue(scheduler.submit("getPath", blocked(), new CallbackContext()));
+    }
+
+    private Runnable blocked() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private void waitForPending(String action, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getPending(action) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, scheduler.getPending(action));
+    }
+
+    private static void assertError(CallbackContext callbackContext) {
+        assertEquals(1, callbackContext.getResults().size());
+        assertEquals(PluginResult.Status.ERROR.ordinal(), callbackContext.getResults().get(0).getStatus());
+    }
+}
@@ -0,0 +1,181 @@
+package com.betasoft.cordova.plugin.intent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes payloads with CborWriter and decodes them with decodeCbor from
+ * IntentPlugin.js under node. Skipped if node is not installed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CborWriterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void integersUseEveryHeadWidth() throws Exception {
+        JSONArray values = new JSONArray();
+        long[] edges = {0, 23, 24, 255, 256, 65535, 65536, 4294967295L, 4294967296L, (1L << 53) - 1};
+        for (long edge : edges) {
+            values.put(edge);
+            values.put(-edge - 1);
+        }
+        assertRoundTrip(values);
+    }
+
+    @Test
+    public void floatsAndLiterals() throws Exception {
+        JSONArray values = new JSONArray();
+        values.put(0.5);
+        values.put(-1.25e-7);
+        values.put(1e300);
+        values.put(3.0);
+        values.put(true);
+        values.put(false);
+        values.put(JSONObject.NULL);
+        assertRoundTrip(values);
+    }
+
+    @Test
+    public void textOfEveryUtf8Length() throws Exception {
+        JSONObject object = new JSONObject();
+        object.put("ascii", "plain text");
+        object.put("latin", "café naïve");
+        object.put("cjk", "文件名");
+        object.put("emoji", "📁 folder 😀");
+        object.put("", "empty key");
+        object.put("long", repeat("0123456789", 7000));
+        assertRoundTrip(object);
+    }
+
+    @Test
+    public void nestedIntentPayload() throws Exception {
+        JSONObject intent = new JSONObject();
+        intent.put("action", "android.intent.action.SEND_MULTIPLE");
+        intent.put("type", "image/*");
+        intent.put("flags", 0x13000001);
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 50; i++) {
+            JSONObject item = new JSONObject();
+            item.put("uri", "content://media/external/images/media/" + i);
+            item.put("type", "image/jpeg");
+            item.put("extension", "jpg");
+            item.put("size", 1024L * 1024 * i);
+            item.put("lastModified", 1700000000000L + i);
+            item.put("name", "IMG_" + i + ".jpg");
+            items.put(item);
+        }
+        intent.put("clipItems", items);
+        intent.put("extras", new JSONObject().put("android.intent.extra.TEXT", "shared").put("empty", new JSONArray()));
+        assertRoundTrip(intent);
+    }
+
+    @Test
+    public void rawItemsJoinedIntoAnArray() throws Exception {
+        CborWriter first = new CborWriter();
+        first.json(new JSONObject().put("id", 1));
+        CborWriter second = new CborWriter();
+        second.json(new JSONObject().put("id", 2));
+
+        CborWriter batch = new CborWriter(16);
+        batch.beginArray();
+        batch.raw(first.toByteArray());
+        batch.raw(second.toByteArray());
+        batch.endArray();
+
+        JSONArray expected = new JSONArray().put(new JSONObject().put("id", 1)).put(new JSONObject().put("id", 2));
+        assertDecodesTo(expected, batch.toByteArray());
+    }
+
+    private static void assertRoundTrip(Object value) throws Exception {
+        CborWriter writer = new CborWriter(16);
+        writer.json(value);
+        assertDecodesTo(value, writer.toByteArray());
+    }
+
+    private static void assertDecodesTo(Object expected, byte[] cbor) throws Exception {
+        JSONArray decoded = new JSONArray(decode(cbor));
+        String text = expected.toString();
+        // Both through org.json so number and escape formatting match
+        assertEquals("with TextDecoder", text, decoded.get(0).toString());
+        assertEquals("with the fallback decoder", text, decoded.get(1).toString());
+    }
+
+    private static String decode(byte[] cbor) throws Exception {
+        String script = System.getProperty("intentPlugin.js");
+        assumeTrue("intentPlugin.js is not set", script != null);
+        File decoder = File.createTempFile("decode_cbor", ".js");
+        try {
+            copy(CborWriterTest.class.getResourceAsStream("/decode_cbor.js"), decoder);
+            Process node;
+            try {
+                node = new ProcessBuilder("node", decoder.getPath(), script).start();
+            } catch (IOException e) {
+                assumeTrue("node is not installed", false);
+                return null;
+            }
+            OutputStream in = node.getOutputStream();
+            in.write(hex(cbor).getBytes(UTF8));
+            in.close();
+            String out = new String(readAll(node.getInputStream()), UTF8);
+            String err = new String(readAll(node.getErrorStream()), UTF8);
+            assertEquals(err, 0, node.waitFor());
+            return out;
+        } finally {
+            decoder.delete();
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private static void copy(InputStream in, File target) throws Exception {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            out.write(readAll(in));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
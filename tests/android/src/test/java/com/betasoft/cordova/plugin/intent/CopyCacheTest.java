@@ -0,0 +1,78 @@
+package com.betasoft.cordova.plugin.intent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Hit and miss counts of copies made through FileUtils
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CopyCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Context context;
+    private CopyCache cache;
+    private Uri uri;
+
+    @Before
+    public void setUp() throws IOException {
+        Robolectric.setupContentProvider(FakeProvider.class, FakeProvider.AUTHORITY);
+        context = RuntimeEnvironment.getApplication();
+        cache = CopyCache.getInstance(context);
+        File source = temp.newFile("photo.jpg");
+        FileOutputStream out = new FileOutputStream(source);
+        try {
+            out.write(new byte[4096]);
+        } finally {
+            out.close();
+        }
+        uri = FakeProvider.serve("photo.jpg", source);
+    }
+
+    @After
+    public void tearDown() {
+        FakeProvider.reset();
+    }
+
+    @Test
+    public void copyCountsOneMissThenHits() throws Exception {
+        JSONObject before = cache.getStats();
+        FileUtils fileUtils = new FileUtils(context);
+        String path = fileUtils.importFile(uri, null);
+        assertEquals(path, fileUtils.importFile(uri, null));
+
+        JSONObject after = cache.getStats();
+        assertEquals(1, after.getLong("misses") - before.getLong("misses"));
+        assertEquals(1, after.getLong("hits") - before.getLong("hits"));
+    }
+
+    @Test
+    public void peekCountsNothing() throws Exception {
+        JSONObject before = cache.getStats();
+        assertNull(cache.peek(CopyCache.key(uri, 4096, 0)));
+
+        JSONObject after = cache.getStats();
+        assertEquals(before.getLong("misses"), after.getLong("misses"));
+        assertEquals(before.getLong("hits"), after.getLong("hits"));
+    }
+}
@@ -0,0 +1,294 @@
+package com.betasoft.cordova.plugin.intent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resuming from the ".part" file: only the length saved in the checkpoint,
+ * for the same source, is trusted, and one copy at a time writes a target.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CopyEngineTest {
+
+    private static final int SIZE = 3 * 1024 * 1024 + 12345;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private ContentResolver resolver;
+    private byte[] content;
+    private Uri uri;
+    private File target;
+    private File part;
+    private File checkpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        FakeProvider.install();
+        resolver = RuntimeEnvironment.getApplication().getContentResolver();
+
+        content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        File source = temp.newFile("source.bin");
+        write(source, content);
+        uri = FakeProvider.serve("source.bin", source);
+
+        target = new File(temp.newFolder("copies"), "source.bin");
+        part = new File(target.getPath() + CopyEngine.PART_SUFFIX);
+        checkpoint = new File(part.getPath() + CopyEngine.CHECKPOINT_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        FakeProvider.reset();
+    }
+
+    @Test
+    public void copyLeavesNoPartOrCheckpoint() throws Exception {
+        assertEquals(SIZE, CopyEngine.copy(resolver, uri, target, null));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(part.exists());
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void copyReplacesTheTarget() throws Exception {
+        write(target, new byte[SIZE * 2]);
+        CopyEngine.copy(resolver, uri, target, null);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void cancelledCopyDeletesThePart() throws Exception {
+        CopyEngine.Control control = new CopyEngine.Control(null, 0);
+        control.cancel();
+        try {
+            CopyEngine.copy(resolver, uri, target, null, control);
+            fail("Copy was not cancelled");
+        } catch (CopyEngine.CancelledException expected) {
+            // the part file goes with it
+        }
+        assertFalse(part.exists());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void resumesAfterTheCommittedLength() throws Exception {
+        int committed = 1024 * 1024;
+        writePart(committed, 256 * 1024);
+        saveCheckpoint(committed);
+
+        ResumeProbe control = new ResumeProbe();
+        assertEquals(SIZE, CopyEngine.copy(resolver, uri, target, null, control));
+        assertEquals(committed, control.resumedFrom.get());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void partWithoutCheckpointStartsOver() throws Exception {
+        // Bytes that were never fsynced and committed may be garbage
+        byte[] garbage = new byte[1024 * 1024];
+        Arrays.fill(garbage, (byte) 0x5a);
+        write(part, garbage);
+
+        ResumeProbe control = new ResumeProbe();
+        CopyEngine.copy(resolver, uri, target, null, control);
+        assertEquals(0, control.resumedFrom.get());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void partOfAnotherSourceStartsOver() throws Exception {
+        // Same target name, e.g. two Drive files called the same
+        int committed = 1024 * 1024;
+        byte[] other = new byte[committed];
+        Arrays.fill(other, (byte) 0x3c);
+        write(part, other);
+        saveCheckpoint(committed, "content://" + FakeProvider.AUTHORITY + "/other.bin|" + SIZE + "|0");
+
+        ResumeProbe control = new ResumeProbe();
+        CopyEngine.copy(resolver, uri, target, null, control);
+        assertEquals(0, control.resumedFrom.get());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void changedSourceStartsOver() throws Exception {
+        int committed = 1024 * 1024;
+        writePart(committed, 0);
+        saveCheckpoint(committed, CopyCache.key(uri, SIZE, 1000));
+
+        ResumeProbe control = new ResumeProbe();
+        CopyEngine.copy(resolver, uri, target, null, control, CopyCache.key(uri, SIZE, 2000));
+        assertEquals(0, control.resumedFrom.get());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void checkpointPastThePartIsClamped() throws Exception {
+        int written = 512 * 1024;
+        writePart(written, 0);
+        saveCheckpoint(2 * 1024 * 1024);
+
+        ResumeProbe control = new ResumeProbe();
+        CopyEngine.copy(resolver, uri, target, null, control);
+        assertEquals(written, control.resumedFrom.get());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void resumedCopyHashesTheWholeTarget() throws Exception {
+        int committed = 1024 * 1024;
+        writePart(committed, 4096);
+        saveCheckpoint(committed);
+
+        ContentDigest digest = new ContentDigest();
+        digest.require(ContentDigest.SHA256);
+        CopyEngine.copy(resolver, uri, target, digest, new ResumeProbe());
+        digest.finish();
+        assertEquals(CopyCache.toHex(MessageDigest.getInstance("SHA-256").digest(content)), digest.getSha256());
+        assertEquals(SIZE, digest.getBytes());
+    }
+
+    @Test
+    public void copyWaitsForTheTargetLock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CopyEngine.TargetLock lock = CopyEngine.lock(target);
+            Future<Long> copy;
+            try {
+                copy = executor.submit(copyTask());
+                Thread.sleep(300);
+                assertFalse("copy ran while another writer held the target", copy.isDone());
+                assertFalse(part.exists());
+            } finally {
+                lock.release();
+            }
+            assertEquals(SIZE, (long) copy.get(10, TimeUnit.SECONDS));
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentCopiesOfOneTargetDontMixTheirParts() throws Exception {
+        // A slow open keeps the copies overlapping
+        FakeProvider.openDelayMs = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Long>> copies = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                copies.add(executor.submit(copyTask()));
+            }
+            for (Future<Long> copy : copies) {
+                assertEquals(SIZE, (long) copy.get(30, TimeUnit.SECONDS));
+            }
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+            assertFalse(part.exists());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lockIsReleasedForTheNextWriter() throws Exception {
+        CopyEngine.lock(target).release();
+        CopyEngine.TargetLock again = CopyEngine.lock(target);
+        again.release();
+        assertTrue(CopyEngine.copy(resolver, uri, target, null) > 0);
+    }
+
+    private Callable<Long> copyTask() {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return CopyEngine.copy(resolver, uri, target, null);
+            }
+        };
+    }
+
+    /**
+     * Write the first bytes of the source to the part file, then some that
+     * don't belong there
+     */
+    private void writePart(int valid, int garbage) throws IOException {
+        byte[] bytes = Arrays.copyOf(content, valid + garbage);
+        Arrays.fill(bytes, valid, bytes.length, (byte) 0xa5);
+        write(part, bytes);
+    }
+
+    private void saveCheckpoint(long length) throws IOException {
+        saveCheckpoint(length, uri.toString());
+    }
+
+    private void saveCheckpoint(long length, String sourceKey) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(checkpoint));
+        try {
+            out.writeLong(length);
+            out.writeUTF(sourceKey);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Records where the copy started
+     */
+    private static final class ResumeProbe extends CopyEngine.Control {
+        final AtomicLong resumedFrom = new AtomicLong(-1);
+
+        ResumeProbe() {
+            super(null, 0);
+        }
+
+        @Override
+        void start(long resumedBytes) {
+            resumedFrom.set(resumedBytes);
+            super.start(resumedBytes);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.betasoft.cordova.plugin.intent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ClipData;
+import android.content.Intent;
+import android.net.Uri;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The plugin as Cordova calls it: loaded into a host, actions through execute()
+ */
+@RunWith(RobolectricTestRunner.class)
+public class IntentPluginTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private CordovaHost host;
+    private IntentPlugin plugin;
+    private Uri photo;
+
+    @Before
+    public void setUp() throws IOException {
+        FakeProvider.install();
+        File file = temp.newFile("photo.jpg");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[1234]);
+        } finally {
+            out.close();
+        }
+        photo = FakeProvider.serve("photo.jpg", file);
+
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("image/jpeg");
+        intent.putExtra(Intent.EXTRA_TEXT, "hello");
+        intent.setClipData(ClipData.newRawUri("photo", photo));
+        host = new CordovaHost(intent);
+        plugin = host.load(new IntentPlugin(), new CordovaPreferences());
+    }
+
+    @After
+    public void tearDown() {
+        plugin.onDestroy();
+        host.shutdown();
+        FakeProvider.reset();
+    }
+
+    @Test
+    public void getCordovaIntentSendsTheLaunchIntent() throws Exception {
+        JSONObject intent = new JSONObject(call("getCordovaIntent", new JSONArray()).getMessage());
+        assertEquals(Intent.ACTION_SEND, intent.getString("action"));
+        assertEquals("image/jpeg", intent.getString("type"));
+        assertTrue(intent.getString("extras").contains("hello"));
+
+        JSONObject item = intent.getJSONArray("clipItems").getJSONObject(0);
+        assertEquals(photo.toString(), item.getString("uri"));
+        assertEquals("photo.jpg", item.getString("fileName"));
+        assertEquals(1234, item.getLong("fileSize"));
+    }
+
+    @Test
+    public void fieldSelectionLeavesOtherFieldsOut() throws Exception {
+        JSONArray args = new JSONArray().put(new JSONObject().put("fields", new JSONArray().put("action")));
+        JSONObject intent = new JSONObject(call("getCordovaIntent", args).getMessage());
+        assertEquals(Intent.ACTION_SEND, intent.getString("action"));
+        assertFalse(intent.has("extras"));
+        assertFalse(intent.has("clipItems"));
+    }
+
+    @Test
+    public void malformedPreferencesFallBackToDefaults() throws Exception {
+        CordovaPreferences preferences = new CordovaPreferences();
+        preferences.set("IntentPluginIoThreads", "two");
+        preferences.set("IntentPluginCopyCacheMaxBytes", "1 GB");
+        preferences.set("IntentPluginProviderOpenTimeoutMs", "");
+        plugin.onDestroy();
+        plugin = host.load(new IntentPlugin(), preferences);
+
+        JSONObject intent = new JSONObject(call("getCordovaIntent", new JSONArray()).getMessage());
+        assertEquals(Intent.ACTION_SEND, intent.getString("action"));
+    }
+
+    @Test
+    public void batchedMetadataEventFollowsItsIntentInAnArray() throws Exception {
+        JSONObject options = new JSONObject().put("deferMetadata", true).put("batchWindowMs", 200);
+        CallbackContext handler = new CallbackContext();
+        assertTrue(plugin.execute("setNewIntentHandler", new JSONArray().put(JSONObject.NULL).put(options), handler));
+
+        JSONArray events = new JSONArray();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!hasMetadata(events) && System.currentTimeMillis() < deadline) {
+            events = new JSONArray();
+            for (PluginResult result : handler.awaitResults(handler.getResults().size() + 1, 100, TimeUnit.MILLISECONDS)) {
+                if (result.getStatus() != PluginResult.Status.OK.ordinal()) {
+                    continue;
+                }
+                assertEquals(PluginResult.MESSAGE_TYPE_JSON, result.getMessageType());
+                JSONArray batch = new JSONArray(result.getMessage());
+                for (int i = 0; i < batch.length(); i++) {
+                    events.put(batch.get(i));
+                }
+            }
+        }
+
+        assertEquals(2, events.length());
+        assertEquals(Intent.ACTION_SEND, events.getJSONObject(0).getString("action"));
+        assertTrue(events.getJSONObject(0).getBoolean("metadataPending"));
+        JSONObject metadata = events.getJSONObject(1);
+        assertEquals("metadata", metadata.getString("event"));
+        assertEquals(events.getJSONObject(0).getInt("intentId"), metadata.getInt("intentId"));
+        assertEquals("photo.jpg", metadata.getJSONArray("clipItems").getJSONObject(0).getString("fileName"));
+    }
+
+    @Test
+    public void unknownActionIsNotHandled() {
+        assertFalse(plugin.execute("noSuchAction", new JSONArray(), new CallbackContext()));
+    }
+
+    private static boolean hasMetadata(JSONArray events) {
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.optJSONObject(i);
+            if (event != null && "metadata".equals(event.optString("event"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PluginResult call(String action, JSONArray args) throws InterruptedException {
+        CallbackContext callbackContext = new CallbackContext();
+        assertTrue(plugin.execute(action, args, callbackContext));
+        List<PluginResult> results = callbackContext.awaitResults(1, 5, TimeUnit.SECONDS);
+        assertEquals(1, results.size());
+        assertEquals(PluginResult.Status.OK.ordinal(), results.get(0).getStatus());
+        return results.get(0);
+    }
+}
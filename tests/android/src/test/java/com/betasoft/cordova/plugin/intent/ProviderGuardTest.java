@@ -0,0 +1,238 @@
+package com.betasoft.cordova.plugin.intent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Breaker transitions: closed, open after timeouts in a row, a single probe
+ * once the cooldown is over, and closed or open again depending on the probe.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ProviderGuardTest {
+
+    private static final long TIMEOUT_MS = 100;
+    private static final long COOLDOWN_MS = 400;
+    private static final int THRESHOLD = 2;
+
+    private static final AtomicInteger AUTHORITIES = new AtomicInteger();
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private Uri uri;
+
+    @Before
+    public void setUp() {
+        // The guard keeps state per authority for the life of the process
+        uri = Uri.parse("content://guard.test" + AUTHORITIES.incrementAndGet() + "/item");
+        configure(TIMEOUT_MS);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        ProviderGuard.configure(ProviderGuard.DEFAULT_QUERY_TIMEOUT_MS, ProviderGuard.DEFAULT_OPEN_TIMEOUT_MS,
+                ProviderGuard.DEFAULT_DOWNLOAD_OPEN_TIMEOUT_MS,
+                ProviderGuard.DEFAULT_MAX_CONCURRENCY, ProviderGuard.DEFAULT_SLOW_MS,
+                ProviderGuard.DEFAULT_BREAKER_THRESHOLD, ProviderGuard.DEFAULT_BREAKER_COOLDOWN_MS);
+    }
+
+    @Test
+    public void breakerOpensAfterTimeoutsInARow() throws Exception {
+        assertEquals("ok", ProviderGuard.open(uri, answer("ok")));
+        assertEquals("closed", breaker());
+
+        openBreaker(2 * TIMEOUT_MS);
+        assertEquals("open", breaker());
+
+        AtomicBoolean ran = new AtomicBoolean();
+        expectUnavailable(uri, flag(ran));
+        assertFalse("call ran while the breaker was open", ran.get());
+    }
+
+    @Test
+    public void answeredProbeClosesBreaker() throws Exception {
+        openBreaker(2 * TIMEOUT_MS);
+        Thread.sleep(COOLDOWN_MS + 100);
+        assertEquals("half-open", breaker());
+
+        assertEquals("probe", ProviderGuard.open(uri, answer("probe")));
+        assertEquals("closed", breaker());
+        assertEquals("next", ProviderGuard.open(uri, answer("next")));
+    }
+
+    @Test
+    public void probeErrorStillClosesBreaker() throws Exception {
+        openBreaker(2 * TIMEOUT_MS);
+        Thread.sleep(COOLDOWN_MS + 100);
+
+        try {
+            ProviderGuard.open(uri, new ProviderGuard.Call<String>() {
+                @Override
+                public String run(CancellationSignal signal) throws IOException {
+                    throw new FileNotFoundException("gone");
+                }
+            });
+            fail("expected the provider's error");
+        } catch (FileNotFoundException e) {
+            // The provider answered in time
+        }
+        assertEquals("closed", breaker());
+    }
+
+    @Test
+    public void timedOutProbeReopensBreaker() throws Exception {
+        openBreaker(2 * TIMEOUT_MS);
+        Thread.sleep(COOLDOWN_MS + 100);
+
+        expectTimeout(uri, slow(2 * TIMEOUT_MS));
+        assertEquals("open", breaker());
+        expectUnavailable(uri, answer("rejected"));
+    }
+
+    @Test
+    public void onlyOneProbeAtATime() throws Exception {
+        openBreaker(2 * TIMEOUT_MS);
+        Thread.sleep(COOLDOWN_MS + 100);
+        configure(5000);
+
+        final CountDownLatch answer = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<String> probe = callers.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return ProviderGuard.open(uri, new ProviderGuard.Call<String>() {
+                    @Override
+                    public String run(CancellationSignal signal) {
+                        started.countDown();
+                        try {
+                            answer.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return "probe";
+                    }
+                });
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+
+        expectUnavailable(uri, answer("second"));
+        answer.countDown();
+        assertEquals("probe", probe.get(5, TimeUnit.SECONDS));
+        assertEquals("closed", breaker());
+    }
+
+    @Test
+    public void callerGivingUpOnASlotLeavesNoProbeBehind() throws Exception {
+        // The timed out calls keep their slots past the cooldown
+        openBreaker(COOLDOWN_MS + 400);
+        Thread.sleep(COOLDOWN_MS + 100);
+
+        // Cooldown is over but all slots are taken, this caller's deadline passes first
+        expectTimeout(uri, answer("waited"));
+
+        // Once the slots are free, the next caller gets to probe
+        Thread.sleep(500);
+        assertEquals("probe", ProviderGuard.open(uri, answer("probe")));
+        assertEquals("closed", breaker());
+    }
+
+    @Test
+    public void slowDriveOpensDontOpenTheBreaker() throws Exception {
+        // Drive downloads the file before the open returns
+        Uri drive = Uri.parse("content://com.google.android.apps.docs.storage/document/large");
+        for (int i = 0; i <= THRESHOLD; i++) {
+            assertEquals("slow", ProviderGuard.open(drive, slow(3 * TIMEOUT_MS)));
+        }
+        assertEquals("closed", ProviderGuard.getStats().getJSONObject(drive.getAuthority()).getString("breaker"));
+        assertEquals(0, ProviderGuard.getStats().getJSONObject(drive.getAuthority()).getLong("timeouts"));
+    }
+
+    /**
+     * Time out THRESHOLD calls in a row, the calls keep running for callMs
+     */
+    private void openBreaker(long callMs) throws Exception {
+        for (int i = 0; i < THRESHOLD; i++) {
+            expectTimeout(uri, slow(callMs));
+        }
+    }
+
+    private static void configure(long timeoutMs) {
+        ProviderGuard.configure(timeoutMs, timeoutMs, 5000, 4, 1000, THRESHOLD, COOLDOWN_MS);
+    }
+
+    private String breaker() throws Exception {
+        return ProviderGuard.getStats().getJSONObject(uri.getAuthority()).getString("breaker");
+    }
+
+    private static void expectTimeout(Uri uri, ProviderGuard.Call<String> call) throws IOException {
+        try {
+            ProviderGuard.open(uri, call);
+            fail("expected a timeout");
+        } catch (ProviderGuard.ProviderTimeoutException e) {
+            // expected
+        }
+    }
+
+    private static void expectUnavailable(Uri uri, ProviderGuard.Call<String> call) throws IOException {
+        try {
+            ProviderGuard.open(uri, call);
+            fail("expected the breaker to reject the call");
+        } catch (ProviderGuard.ProviderUnavailableException e) {
+            // expected
+        }
+    }
+
+    private static ProviderGuard.Call<String> answer(final String value) {
+        return new ProviderGuard.Call<String>() {
+            @Override
+            public String run(CancellationSignal signal) {
+                return value;
+            }
+        };
+    }
+
+    private static ProviderGuard.Call<String> flag(final AtomicBoolean ran) {
+        return new ProviderGuard.Call<String>() {
+            @Override
+            public String run(CancellationSignal signal) {
+                ran.set(true);
+                return "ran";
+            }
+        };
+    }
+
+    private static ProviderGuard.Call<String> slow(final long ms) {
+        return new ProviderGuard.Call<String>() {
+            @Override
+            public String run(CancellationSignal signal) {
+                try {
+                    Thread.sleep(ms);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "slow";
+            }
+        };
+    }
+}
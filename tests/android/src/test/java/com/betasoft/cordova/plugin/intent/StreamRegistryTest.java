@@ -0,0 +1,139 @@
+package com.betasoft.cordova.plugin.intent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Chunked reads with read-ahead on file-backed and sequential sources, and
+ * idle streams being closed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StreamRegistryTest {
+
+    private static final int CHUNK = 64 * 1024;
+    private static final int SIZE = 20 * CHUNK + 777;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private ContentResolver resolver;
+    private byte[] content;
+    private StreamRegistry registry;
+
+    @Before
+    public void setUp() throws IOException {
+        Robolectric.setupContentProvider(FakeProvider.class, FakeProvider.AUTHORITY);
+        resolver = RuntimeEnvironment.getApplication().getContentResolver();
+        content = new byte[SIZE];
+        new Random(7).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() {
+        if (registry != null) {
+            registry.shutdown();
+        }
+        FakeProvider.reset();
+    }
+
+    @Test
+    public void fileBackedChunksMatchTheSource() throws Exception {
+        File source = temp.newFile("source.bin");
+        OutputStream out = new FileOutputStream(source);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        registry = new StreamRegistry(resolver, 4, 4, 0);
+        int handle = registry.open(FakeProvider.serve("source.bin", source));
+        assertEquals(SIZE, registry.getSize(handle));
+        assertArrayEquals(content, readAll(handle));
+        assertEquals(1, FakeProvider.OPENS.get());
+    }
+
+    @Test
+    public void sequentialSourceIsReadAheadInOrder() throws Exception {
+        // No provider serves this authority, so the registry falls back to openInputStream
+        Uri uri = Uri.parse("content://stream.test/sequential.bin");
+        final AtomicInteger opens = new AtomicInteger();
+        Shadows.shadowOf(resolver).registerInputStreamSupplier(uri, new Supplier<InputStream>() {
+            @Override
+            public InputStream get() {
+                opens.incrementAndGet();
+                return new ByteArrayInputStream(content);
+            }
+        });
+        registry = new StreamRegistry(resolver, 4, 4, 0);
+        int handle = registry.open(uri);
+        assertEquals(-1, registry.getSize(handle));
+        assertArrayEquals(content, readAll(handle));
+        assertEquals("read-ahead reopened the source", 1, opens.get());
+    }
+
+    @Test
+    public void idleStreamsAreClosed() throws Exception {
+        File source = temp.newFile("idle.bin");
+        registry = new StreamRegistry(resolver, 1, 0, 50);
+        int handle = registry.open(FakeProvider.serve("idle.bin", source));
+        Thread.sleep(100);
+        assertEquals(1, registry.closeIdle());
+        try {
+            registry.read(handle, 0, CHUNK);
+            fail("idle stream still open");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Unknown stream handle"));
+        }
+        // The slot is free again
+        registry.close(registry.open(FakeProvider.serve("idle.bin", source)));
+    }
+
+    @Test
+    public void streamsInUseStayOpen() throws Exception {
+        File source = temp.newFile("busy.bin");
+        registry = new StreamRegistry(resolver, 1, 0, 60 * 1000);
+        int handle = registry.open(FakeProvider.serve("busy.bin", source));
+        assertEquals(0, registry.closeIdle());
+        assertEquals(0, registry.read(handle, 0, CHUNK).length);
+    }
+
+    private byte[] readAll(int handle) throws IOException {
+        byte[] all = new byte[0];
+        long offset = 0;
+        byte[] chunk;
+        do {
+            chunk = registry.read(handle, offset, CHUNK);
+            all = Arrays.copyOf(all, all.length + chunk.length);
+            System.arraycopy(chunk, 0, all, all.length - chunk.length, chunk.length);
+            offset += chunk.length;
+        } while (chunk.length == CHUNK);
+        return all;
+    }
+}
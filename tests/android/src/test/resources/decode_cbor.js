@@ -0,0 +1,21 @@
+// Decodes hex CBOR from stdin with decodeCbor from IntentPlugin.js, once
+// with TextDecoder and once with its fallback, and prints both as JSON.
+// Usage: node decode_cbor.js path/to/IntentPlugin.js
+var fs = require('fs');
+var vm = require('vm');
+
+var source = fs.readFileSync(process.argv[2], 'utf8');
+var bytes = Buffer.from(fs.readFileSync(0, 'utf8').trim(), 'hex');
+var buffer = bytes.buffer.slice(bytes.byteOffset, bytes.byteOffset + bytes.length);
+
+function load(withTextDecoder) {
+    var sandbox = { window: {}, cordova: { exec: function() {} }, module: { exports: {} } };
+    if (withTextDecoder) {
+        sandbox.TextDecoder = TextDecoder;
+    }
+    vm.createContext(sandbox);
+    vm.runInContext(source, sandbox);
+    return sandbox.module.exports;
+}
+
+process.stdout.write(JSON.stringify([load(true).decodeCbor(buffer), load(false).decodeCbor(buffer)]));
@@ -2,31 +2,295 @@ function IntentPlugin() {
     'use strict';
 }
 
-IntentPlugin.prototype.getCordovaIntent = function(successCallback, failureCallback) {
+/**
+ * Decode CBOR (RFC 8949) sent by the native side for options.binary.
+ * Supports what CborWriter writes and the rest of the major types:
+ * integers, text and byte strings, arrays and maps of definite or
+ * indefinite length, floats, true, false, null and undefined.
+ */
+function decodeCbor(buffer) {
+    'use strict';
+
+    var view = new DataView(buffer);
+    var bytes = new Uint8Array(buffer);
+    var offset = 0;
+    var BREAK = {};
+
+    function utf8(start, end) {
+        if (typeof TextDecoder !== 'undefined') {
+            return new TextDecoder('utf-8').decode(bytes.subarray(start, end));
+        }
+        var text = '';
+        var i = start;
+        while (i < end) {
+            var c = bytes[i++];
+            if (c >= 0xf0) {
+                c = ((c & 0x07) << 18) | ((bytes[i++] & 0x3f) << 12) | ((bytes[i++] & 0x3f) << 6) | (bytes[i++] & 0x3f);
+                c -= 0x10000;
+                text += String.fromCharCode(0xd800 + (c >> 10), 0xdc00 + (c & 0x3ff));
+                continue;
+            } else if (c >= 0xe0) {
+                c = ((c & 0x0f) << 12) | ((bytes[i++] & 0x3f) << 6) | (bytes[i++] & 0x3f);
+            } else if (c >= 0xc0) {
+                c = ((c & 0x1f) << 6) | (bytes[i++] & 0x3f);
+            }
+            text += String.fromCharCode(c);
+        }
+        return text;
+    }
+
+    function float16(half) {
+        var exponent = (half >> 10) & 0x1f;
+        var fraction = half & 0x3ff;
+        var value;
+        if (exponent === 0) {
+            value = fraction * Math.pow(2, -24);
+        } else if (exponent === 31) {
+            value = fraction ? NaN : Infinity;
+        } else {
+            value = (fraction + 1024) * Math.pow(2, exponent - 25);
+        }
+        return half & 0x8000 ? -value : value;
+    }
+
+    function argument(info) {
+        var value;
+        switch (info) {
+            case 24:
+                value = view.getUint8(offset);
+                offset += 1;
+                return value;
+            case 25:
+                value = view.getUint16(offset);
+                offset += 2;
+                return value;
+            case 26:
+                value = view.getUint32(offset);
+                offset += 4;
+                return value;
+            case 27:
+                value = view.getUint32(offset) * 4294967296 + view.getUint32(offset + 4);
+                offset += 8;
+                return value;
+            case 31:
+                return -1;
+            default:
+                if (info < 24) {
+                    return info;
+                }
+                throw new Error('Invalid CBOR at ' + offset);
+        }
+    }
+
+    function chunks(major, length, join) {
+        if (length >= 0) {
+            var start = offset;
+            offset += length;
+            return join(start, offset);
+        }
+        var parts = [];
+        for (;;) {
+            var part = item();
+            if (part === BREAK) {
+                return major === 3 ? parts.join('') : concat(parts);
+            }
+            parts.push(part);
+        }
+    }
+
+    function concat(parts) {
+        var total = 0;
+        parts.forEach(function(part) { total += part.byteLength; });
+        var out = new Uint8Array(total);
+        var position = 0;
+        parts.forEach(function(part) {
+            out.set(new Uint8Array(part), position);
+            position += part.byteLength;
+        });
+        return out.buffer;
+    }
+
+    function item() {
+        var initial = view.getUint8(offset++);
+        var major = initial >> 5;
+        var info = initial & 0x1f;
+        var length, result, key, value, i;
+
+        if (major === 7) {
+            switch (info) {
+                case 20: return false;
+                case 21: return true;
+                case 22: return null;
+                case 23: return undefined;
+                case 25:
+                    value = float16(view.getUint16(offset));
+                    offset += 2;
+                    return value;
+                case 26:
+                    value = view.getFloat32(offset);
+                    offset += 4;
+                    return value;
+                case 27:
+                    value = view.getFloat64(offset);
+                    offset += 8;
+                    return value;
+                case 31: return BREAK;
+                default: return argument(info);
+            }
+        }
+
+        length = argument(info);
+        switch (major) {
+            case 0:
+                return length;
+            case 1:
+                return -1 - length;
+            case 2:
+                return chunks(major, length, function(start, end) {
+                    return buffer.slice(start, end);
+                });
+            case 3:
+                return chunks(major, length, utf8);
+            case 4:
+                result = [];
+                for (i = 0; length < 0 || i < length; i++) {
+                    value = item();
+                    if (value === BREAK) {
+                        break;
+                    }
+                    result.push(value);
+                }
+                return result;
+            case 5:
+                result = {};
+                for (i = 0; length < 0 || i < length; i++) {
+                    key = item();
+                    if (key === BREAK) {
+                        break;
+                    }
+                    result[key] = item();
+                }
+                return result;
+            default:
+                // Tags: the tagged item is returned as it is
+                return item();
+        }
+    }
+
+    return item();
+}
+
+function decodePayload(result) {
+    'use strict';
+
+    return result instanceof ArrayBuffer ? decodeCbor(result) : result;
+}
+
+/**
+ * With options.binary the intent is sent as CBOR instead of JSON text and
+ * decoded here, successCallback receives the same object either way.
+ */
+IntentPlugin.prototype.getCordovaIntent = function(successCallback, failureCallback, options) {
     'use strict';
 
     return cordova.exec (
-        successCallback,
+        function(result) {
+            if (successCallback) {
+                successCallback(decodePayload(result));
+            }
+        },
         failureCallback,
         "IntentPlugin",
         "getCordovaIntent",
+        options ? [options] : []
+    );
+};
+
+IntentPlugin.prototype.getCordovaIntentVersion = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getCordovaIntentVersion',
         []
     );
 };
 
-IntentPlugin.prototype.setNewIntentHandler = function(method) {
+/**
+ * Read a page of clip items from an intent received with pagedClipItems.
+ * fields is optional, e.g. ['uri', 'fileName']. successCallback receives
+ * { handle, offset, total, items }.
+ */
+IntentPlugin.prototype.getClipItems = function(handle, offset, limit, fields, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getClipItems',
+        fields ? [handle, offset, limit, fields] : [handle, offset, limit]
+    );
+};
+
+/**
+ * Register a handler for new intents.
+ *
+ * With options.deferMetadata the handler receives each intent right away,
+ * without fileName, fileSize and lastModified on its clip items. Those follow
+ * in a { event: 'metadata', intentId, clipItems } event, passed to
+ * options.onMetadata if given, or to the handler otherwise. The event has
+ * an error instead of clipItems if the lookups could not be started.
+ *
+ * With options.batchWindowMs the handler receives arrays of intents: intents
+ * arriving within the window are sent together, at most options.maxBatch
+ * (default 50) at a time. Batches are sent right away when the app is paused.
+ * Metadata events are batched too and never arrive before their intent;
+ * with options.onMetadata they are taken out of the array and passed to it
+ * after the batch's intents.
+ *
+ * With options.binary intents are sent as CBOR and decoded before they are
+ * passed on, which is faster for intents with many clip items.
+ */
+IntentPlugin.prototype.setNewIntentHandler = function(method, options) {
     'use strict';
 
+    options = options || {};
+
     cordova.exec (
-        method,
+        function(result) {
+            result = decodePayload(result);
+            if (!options.onMetadata) {
+                method(result);
+            } else if (Array.isArray(result)) {
+                // A batch: metadata events always come after their intents
+                var intents = result.filter(function(item) {
+                    return !item || item.event !== 'metadata';
+                });
+                if (intents.length > 0) {
+                    method(intents);
+                }
+                result.forEach(function(item) {
+                    if (item && item.event === 'metadata') {
+                        options.onMetadata(item);
+                    }
+                });
+            } else if (result && result.event === 'metadata') {
+                options.onMetadata(result);
+            } else {
+                method(result);
+            }
+        },
         null,
         "IntentPlugin",
         "setNewIntentHandler",
-        [method]
+        [method, options]
     );
 };
 
-IntentPlugin.prototype.getRealPathFromContentUrl = function(uri, successCallback, failureCallback) {
+IntentPlugin.prototype.getRealPathFromContentUrl = function(uri, successCallback, failureCallback, options) {
     'use strict'
 
     cordova.exec (
@@ -34,11 +298,355 @@ IntentPlugin.prototype.getRealPathFromContentUrl = function(uri, successCallback
         failureCallback,
         'IntentPlugin',
         'getRealPathFromContentUrl',
-        [uri]
+        options ? [uri, options] : [uri]
     );
 
 }
 
+/**
+ * Release a path leased with getRealPathFromContentUrl(uri, ..., { lease: true }).
+ * successCallback receives true if the lease was still held.
+ */
+IntentPlugin.prototype.releaseLease = function(handle, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'releaseLease',
+        [handle]
+    );
+};
+
+IntentPlugin.prototype.getLeaseStats = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getLeaseStats',
+        []
+    );
+};
+
+/**
+ * Resolve many content URIs in one call.
+ *
+ * itemCallback is called once per URI as soon as it is resolved, with
+ * { index, uri, path } or { index, uri, error }. completeCallback is called
+ * once at the end with { done: true, total, resolved, failed }.
+ */
+IntentPlugin.prototype.resolvePaths = function(uris, options, itemCallback, completeCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        function(result) {
+            if (result && result.done) {
+                if (completeCallback) {
+                    completeCallback(result);
+                }
+            } else if (itemCallback) {
+                itemCallback(result);
+            }
+        },
+        failureCallback,
+        'IntentPlugin',
+        'resolvePaths',
+        [uris, options || {}]
+    );
+};
+
+/**
+ * Small previews of many content URIs.
+ *
+ * itemCallback is called once per URI as soon as its thumbnail is ready, with
+ * { index, uri, path | data, width, height, mimeType, cached } or
+ * { index, uri, error }. completeCallback is called once at the end with
+ * { done: true, total, generated, failed }.
+ */
+IntentPlugin.prototype.getThumbnails = function(uris, options, itemCallback, completeCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        function(result) {
+            if (result && result.done) {
+                if (completeCallback) {
+                    completeCallback(result);
+                }
+            } else if (itemCallback) {
+                itemCallback(result);
+            }
+        },
+        failureCallback,
+        'IntentPlugin',
+        'getThumbnails',
+        [uris, options || {}]
+    );
+};
+
+IntentPlugin.prototype.getThumbnailStats = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getThumbnailStats',
+        []
+    );
+};
+
+IntentPlugin.prototype.getCopyCacheStats = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getCopyCacheStats',
+        []
+    );
+};
+
+/**
+ * Open a read stream on a content URI. successCallback receives
+ * { handle, size }, size is -1 when the provider does not report it.
+ */
+IntentPlugin.prototype.openStream = function(uri, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'openStream',
+        [uri]
+    );
+};
+
+/**
+ * Read up to length bytes at offset. successCallback receives an ArrayBuffer,
+ * empty once the end of the stream is reached.
+ */
+IntentPlugin.prototype.readChunk = function(handle, offset, length, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'readChunk',
+        [handle, offset, length]
+    );
+};
+
+IntentPlugin.prototype.closeStream = function(handle, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'closeStream',
+        [handle]
+    );
+};
+
+IntentPlugin.prototype.getIntentQueueStats = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getIntentQueueStats',
+        []
+    );
+};
+
+/**
+ * Drop a URI from the resolved path cache and the copy cache, so the next
+ * call resolves and copies it again. Without a URI both caches are dropped
+ * entirely.
+ */
+IntentPlugin.prototype.invalidate = function(uri, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'invalidate',
+        uri ? [uri] : []
+    );
+};
+
+IntentPlugin.prototype.getPathCacheStats = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getPathCacheStats',
+        []
+    );
+};
+
+IntentPlugin.prototype.importFile = function(uri, options, progressCallback, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        function(result) {
+            if (result && result.event === 'done') {
+                if (successCallback) {
+                    successCallback(result);
+                }
+            } else if (progressCallback) {
+                progressCallback(result);
+            }
+        },
+        failureCallback,
+        'IntentPlugin',
+        'importFile',
+        [uri, options || {}]
+    );
+};
+
+IntentPlugin.prototype.cancelImport = function(id, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'cancelImport',
+        [id]
+    );
+};
+
+IntentPlugin.prototype.hashContent = function(uri, options, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'hashContent',
+        [uri, options || {}]
+    );
+};
+
+/**
+ * Walk the documents under a tree URI from ACTION_OPEN_DOCUMENT_TREE.
+ *
+ * entriesCallback is called with { id, event: "entries", entries } for each
+ * batch of files, doneCallback once at the end with
+ * { id, event: "done", files, directories, failed, bytes, truncated }.
+ */
+IntentPlugin.prototype.walkTree = function(treeUri, options, entriesCallback, doneCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        function(result) {
+            if (result && result.event === 'done') {
+                if (doneCallback) {
+                    doneCallback(result);
+                }
+            } else if (entriesCallback) {
+                entriesCallback(result);
+            }
+        },
+        failureCallback,
+        'IntentPlugin',
+        'walkTree',
+        [treeUri, options || {}]
+    );
+};
+
+IntentPlugin.prototype.cancelWalk = function(id, successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'cancelWalk',
+        [id]
+    );
+};
+
+IntentPlugin.prototype.getStorageStats = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getStorageStats',
+        []
+    );
+};
+
+IntentPlugin.prototype.getStartupTrace = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getStartupTrace',
+        []
+    );
+};
+
+IntentPlugin.prototype.getProviderStats = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getProviderStats',
+        []
+    );
+};
+
+IntentPlugin.prototype.getMetrics = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'getMetrics',
+        []
+    );
+};
+
+IntentPlugin.prototype.resetMetrics = function(successCallback, failureCallback) {
+    'use strict';
+
+    cordova.exec (
+        successCallback,
+        failureCallback,
+        'IntentPlugin',
+        'resetMetrics',
+        []
+    );
+};
+
+/**
+ * Decode a CBOR ArrayBuffer, as received with options.binary
+ */
+IntentPlugin.prototype.decodeCbor = function(buffer) {
+    'use strict';
+
+    return decodeCbor(buffer);
+};
+
 var intentInstance = new IntentPlugin();
 module.exports = intentInstance;
 